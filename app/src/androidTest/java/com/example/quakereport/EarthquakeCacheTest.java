@@ -0,0 +1,133 @@
+package com.example.quakereport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link EarthquakeCache} on a device, against an in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeCacheTest {
+
+    private static final String FEED = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&offset=1&limit=20";
+    private static final String OTHER_FEED = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=7";
+
+    private EarthquakeCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new EarthquakeCache(InstrumentationRegistry.getInstrumentation().getTargetContext(), null);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    private static EarthquakeData earthquake(String id, double magnitude, long time) {
+        return new EarthquakeData(id, magnitude, "10 km N of Foo, Bar", time, time + 1000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, 35.5, -120.25, 12.5);
+    }
+
+    @Test
+    public void neverCached_nothing() {
+        assertNull(cache.getEarthquakes(FEED));
+        assertNull(cache.getValidators(FEED));
+        assertEquals(0, cache.getDownloadTime(FEED));
+    }
+
+    @Test
+    public void put_roundTripsEveryColumnNewestFirst() {
+        long before = System.currentTimeMillis();
+        cache.putEarthquakes(FEED, Arrays.asList(earthquake("old", 6.1, 1000), earthquake("new", 6.7, 2000)),
+                "\"abc\"", "Wed, 01 Jan 2020 00:00:00 GMT");
+
+        List<EarthquakeData> earthquakes = cache.getEarthquakes(FEED);
+        assertEquals(2, earthquakes.size());
+        EarthquakeData newest = earthquakes.get(0);
+        assertEquals("new", newest.getId());
+        assertEquals(6.7, newest.getMagnitude(), 0);
+        assertEquals("10 km N of Foo, Bar", newest.getPlace());
+        assertEquals(2000, newest.getTime());
+        assertEquals(3000, newest.getUpdated());
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/new", newest.getUrl());
+        assertEquals(35.5, newest.getLatitude(), 0);
+        assertEquals(-120.25, newest.getLongitude(), 0);
+        assertEquals(12.5, newest.getDepth(), 0);
+        assertEquals("old", earthquakes.get(1).getId());
+
+        EarthquakeCache.Validators validators = cache.getValidators(FEED);
+        assertEquals("\"abc\"", validators.etag);
+        assertEquals("Wed, 01 Jan 2020 00:00:00 GMT", validators.lastModified);
+        assertTrue(cache.getDownloadTime(FEED) >= before);
+    }
+
+    @Test
+    public void put_emptyResponse_cachedAsEmpty() {
+        cache.putEarthquakes(FEED, Collections.<EarthquakeData>emptyList(), null, null);
+        assertTrue(cache.getEarthquakes(FEED).isEmpty());
+        EarthquakeCache.Validators validators = cache.getValidators(FEED);
+        assertNull(validators.etag);
+        assertNull(validators.lastModified);
+    }
+
+    @Test
+    public void put_replacesThePreviousResponse() {
+        cache.putEarthquakes(FEED, Arrays.asList(earthquake("a", 6.1, 1000), earthquake("b", 6.2, 2000)), "\"1\"", null);
+        cache.putEarthquakes(FEED, Arrays.asList(earthquake("b", 6.4, 2000), earthquake("c", 6.3, 3000)), "\"2\"", null);
+
+        List<EarthquakeData> earthquakes = cache.getEarthquakes(FEED);
+        assertEquals(2, earthquakes.size());
+        assertEquals("c", earthquakes.get(0).getId());
+        assertEquals("b", earthquakes.get(1).getId());
+        assertEquals(6.4, earthquakes.get(1).getMagnitude(), 0);
+        assertEquals("\"2\"", cache.getValidators(FEED).etag);
+    }
+
+    @Test
+    public void put_sameEventInTwoQueries_keptForEach() {
+        cache.putEarthquakes(FEED, Collections.singletonList(earthquake("a", 7.1, 1000)), null, null);
+        cache.putEarthquakes(OTHER_FEED, Collections.singletonList(earthquake("a", 7.1, 1000)), null, null);
+        cache.putEarthquakes(OTHER_FEED, Collections.<EarthquakeData>emptyList(), null, null);
+
+        assertEquals(1, cache.getEarthquakes(FEED).size());
+        assertTrue(cache.getEarthquakes(OTHER_FEED).isEmpty());
+    }
+
+    @Test
+    public void put_beyondMaxQueries_dropsTheOldestDownloads() {
+        for (int i = 0; i <= EarthquakeCache.MAX_QUERIES; i++) {
+            cache.putEarthquakes(FEED + "&q=" + i, Collections.singletonList(earthquake("e" + i, 6, i)), null, null);
+        }
+
+        assertNull(cache.getEarthquakes(FEED + "&q=0"));
+        assertNull(cache.getValidators(FEED + "&q=0"));
+        for (int i = 1; i <= EarthquakeCache.MAX_QUERIES; i++) {
+            assertEquals(1, cache.getEarthquakes(FEED + "&q=" + i).size());
+        }
+
+        // Downloading a query again makes it the newest
+        cache.putEarthquakes(FEED + "&q=1", Collections.<EarthquakeData>emptyList(), null, null);
+        cache.putEarthquakes(OTHER_FEED, Collections.<EarthquakeData>emptyList(), null, null);
+        assertNotNull(cache.getEarthquakes(FEED + "&q=1"));
+        assertNull(cache.getEarthquakes(FEED + "&q=2"));
+    }
+
+    @Test
+    public void upgrade_startsOver() {
+        cache.putEarthquakes(FEED, Collections.singletonList(earthquake("a", 6.1, 1000)), "\"1\"", null);
+        cache.onUpgrade(cache.getWritableDatabase(), 3, 4);
+        assertNull(cache.getEarthquakes(FEED));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.quakereport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link EarthquakeImporter#importGeoJson} on a device, as it reads through
+ * {@link android.util.JsonReader}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeGeoJsonImportTest {
+
+    private static final String EXPORT = "{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"type\":\"Feature\",\"properties\":{\"mag\":6.4,\"place\":\"12 km SSW of Hualien City, Taiwan\","
+            + "\"time\":1700000000000,\"updated\":1700000600000},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[121.56,23.87,15.2]},\"id\":\"us7000abcd\"},"
+            + "{\"type\":\"Feature\",\"properties\":{\"mag\":5.1,\"time\":1690000000000},"
+            + "\"geometry\":null,\"id\":\"ak0001\"}]}";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("earthquake_archive", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void importGeoJson_intoArchive() throws IOException {
+        assertEquals(2, EarthquakeImporter.importGeoJson(stream(EXPORT), file, null));
+
+        EarthquakeArchive archive = EarthquakeArchive.open(file);
+        assertEquals(2, archive.size());
+        assertEquals("us7000abcd", archive.getId(0));
+        assertEquals(6.4, archive.getMagnitude(0), 0);
+        assertEquals("Hualien City, Taiwan", archive.getPrimaryLocation(0));
+        assertEquals(23.87, archive.getLatitude(0), 1e-4);
+        assertEquals("ak0001", archive.getId(1));
+    }
+
+    @Test
+    public void importGeoJson_notAFeatureCollection_failsAndKeepsTheArchive() throws IOException {
+        EarthquakeImporter.importGeoJson(stream(EXPORT), file, null);
+
+        for (String json : new String[] {"[{\"not\":\"geojson\"}]", "{\"type\":\"Feature\",\"id\":\"a\"}",
+                "{\"features\":{\"not\":\"an array\"}}", "{\"features\":[{\"properties\":{\"mag\":\"big\"}}]}"}) {
+            try {
+                EarthquakeImporter.importGeoJson(stream(json), file, null);
+                fail("Imported " + json);
+            } catch (IOException expected) {
+                // The previous archive is still there
+            }
+            assertEquals(2, EarthquakeArchive.open(file).size());
+        }
+    }
+}
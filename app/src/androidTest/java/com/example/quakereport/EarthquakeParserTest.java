@@ -0,0 +1,117 @@
+package com.example.quakereport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streaming GeoJSON parser of {@link QueryUtils}, on a device as it reads through
+ * {@link android.util.JsonReader}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeParserTest {
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String feature(String id, String properties, String geometry) {
+        return "{\"type\":\"Feature\",\"properties\":{" + properties + "},\"geometry\":" + geometry
+                + (id != null ? ",\"id\":\"" + id + "\"" : "") + "}";
+    }
+
+    private static String collection(String... features) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":")
+                .append(features.length).append("},\"features\":[");
+        for (int i = 0; i < features.length; i++) {
+            json.append(i > 0 ? "," : "").append(features[i]);
+        }
+        return json.append("],\"bbox\":[-180,-90,0,180,90,700]}").toString();
+    }
+
+    @Test
+    public void extract_allFields() throws IOException {
+        List<EarthquakeData> earthquakes = QueryUtils.extractEarthquakes(stream(collection(
+                feature("us7000abcd", "\"mag\":6.4,\"place\":\"12 km SSW of Hualien City, Taiwan\","
+                        + "\"time\":1700000000000,\"updated\":1700000600000,"
+                        + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us7000abcd\"",
+                        "{\"type\":\"Point\",\"coordinates\":[121.56,23.87,15.2]}"))));
+
+        assertEquals(1, earthquakes.size());
+        EarthquakeData earthquake = earthquakes.get(0);
+        assertEquals("us7000abcd", earthquake.getId());
+        assertEquals(6.4, earthquake.getMagnitude(), 0);
+        assertEquals("Hualien City, Taiwan", earthquake.getPrimaryLocation());
+        assertEquals(1700000000000L, earthquake.getTime());
+        assertEquals(1700000600000L, earthquake.getUpdated());
+        assertEquals(23.87, earthquake.getLatitude(), 0);
+        assertEquals(121.56, earthquake.getLongitude(), 0);
+        assertEquals(15.2, earthquake.getDepth(), 0);
+    }
+
+    @Test
+    public void extract_nullMagnitudePlaceAndGeometry_defaults() throws IOException {
+        List<EarthquakeData> earthquakes = QueryUtils.extractEarthquakes(stream(collection(
+                feature("a", "\"mag\":null,\"place\":null,\"time\":1700000000000", "null"),
+                feature("b", "\"mag\":5.1,\"time\":1700000000000",
+                        "{\"type\":\"Point\",\"coordinates\":[10.5,null,null]}"))));
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(0, earthquakes.get(0).getMagnitude(), 0);
+        assertEquals("", earthquakes.get(0).getPlace());
+        assertEquals(0, earthquakes.get(0).getLatitude(), 0);
+        assertEquals(10.5, earthquakes.get(1).getLongitude(), 0);
+        assertEquals(0, earthquakes.get(1).getLatitude(), 0);
+    }
+
+    @Test
+    public void extract_deletedFeatures_onlyTheirIds() throws IOException {
+        List<String> deletedIds = new ArrayList<>();
+        List<EarthquakeData> earthquakes = QueryUtils.extractEarthquakes(stream(collection(
+                feature("kept", "\"mag\":6.0,\"status\":\"reviewed\"", "null"),
+                feature("gone", "\"mag\":6.2,\"status\":\"deleted\"", "null"))), deletedIds, null);
+
+        assertEquals(1, earthquakes.size());
+        assertEquals("kept", earthquakes.get(0).getId());
+        assertEquals(1, deletedIds.size());
+        assertEquals("gone", deletedIds.get(0));
+    }
+
+    @Test
+    public void extract_unknownFieldsSkipped() throws IOException {
+        List<EarthquakeData> earthquakes = QueryUtils.extractEarthquakes(stream(collection(
+                feature("a", "\"mag\":6.1,\"products\":{\"origin\":[{\"code\":\"x\",\"nested\":[1,2,{}]}]},"
+                        + "\"tsunami\":1,\"felt\":null,\"sig\":572,\"types\":\",origin,\"", "null"))));
+
+        assertEquals(1, earthquakes.size());
+        assertEquals(6.1, earthquakes.get(0).getMagnitude(), 0);
+    }
+
+    @Test
+    public void extract_featuresWithoutIdOrProperties_skipped() throws IOException {
+        List<EarthquakeData> earthquakes = QueryUtils.extractEarthquakes(stream(collection(
+                feature(null, "\"mag\":6.1", "null"),
+                feature(null, "\"mag\":6.2", "null"),
+                "{\"type\":\"Feature\",\"id\":\"bare\"}",
+                feature("a", "\"mag\":6.3", "null"))));
+
+        assertEquals(1, earthquakes.size());
+        assertEquals("a", earthquakes.get(0).getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void extract_truncatedDocument_fails() throws IOException {
+        String json = collection(feature("a", "\"mag\":6.1", "null"), feature("b", "\"mag\":6.2", "null"));
+        QueryUtils.extractEarthquakes(stream(json.substring(0, json.length() / 2 + 20)));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.quakereport;
+
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the USGS queries built from a base query, on a device as they go through {@link Uri}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUrlTest {
+
+    private static final String BASE_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake&orderby=time&minmag=6&offset=21&limit=20";
+
+    @Test
+    public void filterUrl_replacesMagnitudeTimeAndPaging() {
+        // 2020-01-01T00:00:00Z to 2020-02-01T00:00:00Z
+        EarthquakeFilter filter = new EarthquakeFilter(6, 7, 1577836800000L, 1580515200000L,
+                EarthquakeFilter.Order.NEWEST_FIRST);
+        Uri uri = Uri.parse(filter.buildUrl(BASE_URL));
+
+        assertEquals("geojson", uri.getQueryParameter("format"));
+        assertEquals("earthquake", uri.getQueryParameter("eventtype"));
+        assertEquals("time", uri.getQueryParameter("orderby"));
+        assertNull(uri.getQueryParameter("minmag"));
+        assertNull(uri.getQueryParameter("offset"));
+        assertNull(uri.getQueryParameter("limit"));
+        assertEquals("6.0", uri.getQueryParameter("minmagnitude"));
+        assertEquals("7.0", uri.getQueryParameter("maxmagnitude"));
+        assertEquals("2020-01-01T00:00:00.000", uri.getQueryParameter("starttime"));
+        assertEquals("2020-02-01T00:00:00.000", uri.getQueryParameter("endtime"));
+    }
+
+    @Test
+    public void filterUrl_leavesOpenEndsOut() {
+        Uri uri = Uri.parse(EarthquakeFilter.minMagnitude(6).buildUrl(BASE_URL));
+        assertEquals("6.0", uri.getQueryParameter("minmagnitude"));
+        assertNull(uri.getQueryParameter("maxmagnitude"));
+        assertNull(uri.getQueryParameter("starttime"));
+        assertNull(uri.getQueryParameter("endtime"));
+    }
+
+    @Test
+    public void pageUrl_replacesOffsetAndLimit() {
+        Uri uri = Uri.parse(QueryUtils.buildPageUrl(BASE_URL, 41, 20));
+        assertEquals(Collections.singletonList("41"), uri.getQueryParameters("offset"));
+        assertEquals(Collections.singletonList("20"), uri.getQueryParameters("limit"));
+        assertEquals("6", uri.getQueryParameter("minmag"));
+    }
+
+    @Test
+    public void deltaUrl_dropsPagingAndAsksForUpdates() {
+        Uri uri = Uri.parse(QueryUtils.buildDeltaUrl(BASE_URL, 1577836800000L));
+        assertNull(uri.getQueryParameter("offset"));
+        assertNull(uri.getQueryParameter("limit"));
+        assertEquals("2020-01-01T00:00:00.000", uri.getQueryParameter("updatedafter"));
+        assertEquals("true", uri.getQueryParameter("includedeleted"));
+    }
+
+    @Test
+    public void normalizeUrl_sameQueryComparesEqual() {
+        String reordered = "HTTPS://Earthquake.USGS.gov/fdsnws/event/1/query"
+                + "?limit=20&offset=21&minmag=6&orderby=time&eventtype=earthquake&format=geojson#top";
+        assertEquals(QueryUtils.normalizeUrl(BASE_URL), QueryUtils.normalizeUrl(reordered));
+        assertNotEquals(QueryUtils.normalizeUrl(BASE_URL),
+                QueryUtils.normalizeUrl(QueryUtils.buildPageUrl(BASE_URL, 1, 20)));
+        assertTrue(Arrays.asList(QueryUtils.normalizeUrl(BASE_URL).split("[?&]")).contains("format=geojson"));
+    }
+}
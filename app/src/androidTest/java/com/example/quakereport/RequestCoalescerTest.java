@@ -0,0 +1,239 @@
+package com.example.quakereport;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link RequestCoalescer} on a device, as callers leave through {@link CancellationSignal}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestCoalescerTest {
+
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=6";
+
+    /** Long enough for any thread of the test to get where it is going */
+    private static final long WAIT_SECONDS = 5;
+
+    private ExecutorService fetchExecutor;
+    private ExecutorService callers;
+    private RequestCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        fetchExecutor = Executors.newCachedThreadPool();
+        callers = Executors.newCachedThreadPool();
+        coalescer = new RequestCoalescer(60 * 1000, 4, fetchExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * A fetch that blocks until released or cancelled, counting how many times it ran.
+     */
+    private static final class BlockingFetch implements RequestCoalescer.Fetch {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final List<EarthquakeData> earthquakes = Collections.singletonList(
+                new EarthquakeData("a", 6.1, "10 km N of Foo, Bar", 1000, 1000, "", 0, 0, 10));
+        volatile CancellationSignal signal;
+
+        @Override
+        public List<EarthquakeData> run(CancellationSignal signal) throws IOException {
+            runs.incrementAndGet();
+            this.signal = signal;
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    release.countDown();
+                }
+            });
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            signal.throwIfCanceled();
+            return earthquakes;
+        }
+    }
+
+    private Future<List<EarthquakeData>> fetchLater(final boolean isCached, final CancellationSignal signal,
+                                                    final RequestCoalescer.Fetch fetch) {
+        return callers.submit(new Callable<List<EarthquakeData>>() {
+            @Override
+            public List<EarthquakeData> call() throws IOException {
+                return coalescer.fetch(URL, isCached, signal, fetch);
+            }
+        });
+    }
+
+    /**
+     * Wait for the coalescer to have counted {@code count} callers joining a request in flight.
+     */
+    private static void awaitJoined(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (EarthquakeMetrics.getCount(EarthquakeMetrics.Counter.COALESCED_REQUESTS) < count) {
+            assertTrue("Nobody joined the request", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void concurrentCallers_shareOneFetch() throws Exception {
+        BlockingFetch fetch = new BlockingFetch();
+        long joined = EarthquakeMetrics.getCount(EarthquakeMetrics.Counter.COALESCED_REQUESTS);
+        Future<List<EarthquakeData>> first = fetchLater(true, null, fetch);
+        assertTrue(fetch.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Future<List<EarthquakeData>> second = fetchLater(true, null, fetch);
+        awaitJoined(joined + 1);
+
+        fetch.release.countDown();
+        assertSame(fetch.earthquakes.get(0), first.get(WAIT_SECONDS, TimeUnit.SECONDS).get(0));
+        assertSame(fetch.earthquakes.get(0), second.get(WAIT_SECONDS, TimeUnit.SECONDS).get(0));
+        assertEquals(1, fetch.runs.get());
+    }
+
+    @Test
+    public void failedFetch_throwsToEveryCaller() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RequestCoalescer.Fetch fetch = new RequestCoalescer.Fetch() {
+            @Override
+            public List<EarthquakeData> run(CancellationSignal signal) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("HTTP 503");
+            }
+        };
+        long joined = EarthquakeMetrics.getCount(EarthquakeMetrics.Counter.COALESCED_REQUESTS);
+        Future<List<EarthquakeData>> first = fetchLater(false, null, fetch);
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Future<List<EarthquakeData>> second = fetchLater(false, null, fetch);
+        awaitJoined(joined + 1);
+        release.countDown();
+
+        assertFailedWith(IOException.class, first);
+        assertFailedWith(IOException.class, second);
+    }
+
+    @Test
+    public void recentFetch_handedOutUntilItExpires() throws Exception {
+        coalescer = new RequestCoalescer(100, 4, fetchExecutor);
+        BlockingFetch fetch = new BlockingFetch();
+        fetch.release.countDown();
+
+        coalescer.fetch(URL, false, null, fetch);
+        coalescer.fetch(URL, false, null, fetch);
+        assertEquals(1, fetch.runs.get());
+
+        Thread.sleep(150);
+        coalescer.fetch(URL, false, null, fetch);
+        assertEquals(2, fetch.runs.get());
+    }
+
+    @Test
+    public void invalidate_fetchesAgain() throws Exception {
+        BlockingFetch fetch = new BlockingFetch();
+        fetch.release.countDown();
+
+        coalescer.fetch(URL, true, null, fetch);
+        coalescer.invalidate(URL);
+        coalescer.fetch(URL, true, null, fetch);
+        assertEquals(2, fetch.runs.get());
+    }
+
+    @Test
+    public void cachedAndUncachedFetches_notShared() throws Exception {
+        BlockingFetch fetch = new BlockingFetch();
+        fetch.release.countDown();
+
+        // Only the cached one writes the query to the cache, so it can't be answered by the other
+        coalescer.fetch(URL, false, null, fetch);
+        coalescer.fetch(URL, true, null, fetch);
+        assertEquals(2, fetch.runs.get());
+
+        coalescer.fetch(URL, true, null, fetch);
+        coalescer.fetch(URL, false, null, fetch);
+        assertEquals(2, fetch.runs.get());
+
+        // Both are forgotten
+        coalescer.invalidate(URL);
+        coalescer.fetch(URL, true, null, fetch);
+        coalescer.fetch(URL, false, null, fetch);
+        assertEquals(4, fetch.runs.get());
+    }
+
+    @Test
+    public void cancel_returnsWhileTheFetchIsBlocked() throws Exception {
+        BlockingFetch fetch = new BlockingFetch();
+        CancellationSignal signal = new CancellationSignal();
+        Future<List<EarthquakeData>> caller = fetchLater(true, signal, fetch);
+        assertTrue(fetch.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        signal.cancel();
+        assertFailedWith(OperationCanceledException.class, caller);
+        // Nobody is left waiting for it
+        assertTrue(fetch.signal.isCanceled());
+    }
+
+    @Test
+    public void cancelOneCaller_sharedFetchGoesOnForTheOthers() throws Exception {
+        BlockingFetch fetch = new BlockingFetch();
+        long joined = EarthquakeMetrics.getCount(EarthquakeMetrics.Counter.COALESCED_REQUESTS);
+        CancellationSignal signal = new CancellationSignal();
+        Future<List<EarthquakeData>> leaving = fetchLater(true, signal, fetch);
+        assertTrue(fetch.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Future<List<EarthquakeData>> staying = fetchLater(true, null, fetch);
+        awaitJoined(joined + 1);
+
+        signal.cancel();
+        assertFailedWith(OperationCanceledException.class, leaving);
+        assertFalse(fetch.signal.isCanceled());
+
+        fetch.release.countDown();
+        assertEquals(1, staying.get(WAIT_SECONDS, TimeUnit.SECONDS).size());
+        assertEquals(1, fetch.runs.get());
+    }
+
+    private static void assertFailedWith(Class<? extends Exception> expected, Future<?> caller)
+            throws InterruptedException, TimeoutException {
+        try {
+            caller.get(WAIT_SECONDS, TimeUnit.SECONDS);
+            fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        }
+    }
+}
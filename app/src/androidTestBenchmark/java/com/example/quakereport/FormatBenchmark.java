@@ -0,0 +1,53 @@
+package com.example.quakereport;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the cost of formatting one list row with {@link EarthquakeFormatter}.
+ * Once warmed up these should report zero allocations.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FormatBenchmark {
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final EarthquakeFormatter formatter = new EarthquakeFormatter();
+    private final char[] buffer = new char[EarthquakeFormatter.BUFFER_SIZE];
+
+    @Test
+    public void formatMagnitude() {
+        BenchmarkState state = benchmarkRule.getState();
+        double magnitude = 0;
+        while (state.keepRunning()) {
+            formatter.formatMagnitude(magnitude);
+            magnitude = magnitude >= 9.9 ? 0 : magnitude + 0.1;
+        }
+    }
+
+    @Test
+    public void formatDate() {
+        BenchmarkState state = benchmarkRule.getState();
+        long time = 1633000000000L;
+        while (state.keepRunning()) {
+            formatter.formatDate(time, buffer);
+            time -= 3600000;
+        }
+    }
+
+    @Test
+    public void formatTime() {
+        BenchmarkState state = benchmarkRule.getState();
+        long time = 1633000000000L;
+        while (state.keepRunning()) {
+            formatter.formatTime(time, buffer);
+            time -= 60000;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.quakereport;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates USGS-shaped GeoJSON responses of any size for the benchmarks,
+ * with every property USGS sends so the parser also pays for the ones it skips.
+ * Responses are written to a file one feature at a time, since 100k features
+ * take about 100 MB and wouldn't fit in the heap of most devices.
+ */
+final class GeoJsonFixtures {
+
+    private static final String[] DIRECTIONS = {"N", "NNE", "NE", "E", "SE", "S", "SW", "W", "NW", "WNW"};
+    private static final String[] REGIONS = {"Tonga", "Fiji", "Chile", "Japan", "Alaska", "Indonesia",
+            "Papua New Guinea", "Peru", "Mexico", "California"};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private GeoJsonFixtures() {
+    }
+
+    /**
+     * Return a file of {@code directory} holding a UTF-8 encoded feature collection with
+     * {@code count} earthquakes. The same count always gives the same bytes, so the file
+     * is only written the first time.
+     */
+    static File featureCollection(int count, File directory) throws IOException {
+        File file = new File(directory, "features_" + count + ".json");
+        if (file.exists()) {
+            return file;
+        }
+        File partFile = new File(directory, file.getName() + ".part");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(partFile), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writeFeatureCollection(count, writer);
+        }
+        if (!partFile.renameTo(file)) {
+            throw new IOException("Could not move the fixture to " + file);
+        }
+        return file;
+    }
+
+    private static void writeFeatureCollection(int count, Writer writer) throws IOException {
+        Random random = new Random(count);
+        // Only holds one feature at a time
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1633000000000,")
+                .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.12.3\",\"count\":")
+                .append(count).append("},\"features\":[");
+
+        long time = 1633000000000L;
+        for (int i = 0; i < count; i++) {
+            String id = String.format(Locale.US, "us%08d", i);
+            double mag = Math.round(random.nextDouble() * 90) / 10.0;
+            double longitude = random.nextDouble() * 360 - 180;
+            double latitude = random.nextDouble() * 180 - 90;
+            double depth = random.nextDouble() * 600;
+            String place = (1 + random.nextInt(300)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                    + " of Town " + random.nextInt(50) + ", " + REGIONS[random.nextInt(REGIONS.length)];
+            time -= random.nextInt(3600000);
+
+            writer.append(sb);
+            sb.setLength(0);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"type\":\"Feature\",\"properties\":{")
+                    .append("\"mag\":").append(mag)
+                    .append(",\"place\":\"").append(place).append('"')
+                    .append(",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + 600000)
+                    .append(",\"tz\":null")
+                    .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id).append('"')
+                    .append(",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=").append(id).append("&format=geojson\"")
+                    .append(",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"reviewed\",\"tsunami\":0")
+                    .append(",\"sig\":").append(random.nextInt(1000))
+                    .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2)).append('"')
+                    .append(",\"ids\":\",").append(id).append(",\",\"sources\":\",us,\"")
+                    .append(",\"types\":\",origin,phase-data,\",\"nst\":null,\"dmin\":1.2,\"rms\":0.8,\"gap\":30")
+                    .append(",\"magType\":\"mww\",\"type\":\"earthquake\",\"title\":\"M ").append(mag).append(" - ").append(place).append('"')
+                    .append("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(longitude).append(',').append(latitude).append(',').append(depth)
+                    .append("]},\"id\":\"").append(id).append("\"}");
+        }
+        sb.append("],\"bbox\":[-180,-90,0,180,90,600]}");
+        writer.append(sb);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.quakereport;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link QueryUtils#extractEarthquakes(java.io.InputStream)} and filling the
+ * {@link EarthquakeStore} on responses of 10 to 100k features, streamed from a file
+ * as they would be from the network.
+ * Run with ./gradlew :app:connectedCheck -PtestBuildType=benchmark
+ */
+@RunWith(Parameterized.class)
+public class ParseBenchmark {
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameters(name = "features={0}")
+    public static Collection<Object[]> sizes() {
+        return Arrays.asList(new Object[][] {{10}, {1000}, {10000}, {100000}});
+    }
+
+    private final int featureCount;
+    private File response;
+
+    public ParseBenchmark(int featureCount) {
+        this.featureCount = featureCount;
+    }
+
+    @Before
+    public void generateResponse() throws IOException {
+        File directory = InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+        response = GeoJsonFixtures.featureCollection(featureCount, directory);
+    }
+
+    @Test
+    public void extractEarthquakes() throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            List<EarthquakeData> earthquakes;
+            try (InputStream inputStream = new FileInputStream(response)) {
+                earthquakes = QueryUtils.extractEarthquakes(inputStream);
+            }
+            state.pauseTiming();
+            assertEquals(featureCount, earthquakes.size());
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void fillStore() throws IOException {
+        List<EarthquakeData> earthquakes;
+        try (InputStream inputStream = new FileInputStream(response)) {
+            earthquakes = QueryUtils.extractEarthquakes(inputStream);
+        }
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            EarthquakeStore store = new EarthquakeStore();
+            store.addAll(earthquakes);
+        }
+    }
+}
@@ -1,177 +1,248 @@
 package com.example.quakereport;
 
-import android.app.Activity;
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.Switch;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-public class EarthQuakeAdapter extends ArrayAdapter<EarthquakeData> {
+public class EarthQuakeAdapter extends RecyclerView.Adapter<EarthQuakeAdapter.ViewHolder> {
 
-    public EarthQuakeAdapter(@NonNull Context context, List<EarthquakeData> earthquake) {
-        super(context, 0, earthquake);
+    /**
+     * Callback invoked when an earthquake of the list is clicked.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(EarthquakeData earthquake);
     }
 
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-
-        // Check if the existing view is being reused, otherwise inflate the view
-        View listItemView = convertView;
-
-        if(listItemView == null) {
-
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
-        }
+    private final Context context;
 
-            // Get the {@link EarthQuakeData} object located at this position in the list
-            EarthquakeData currentEarthquake = getItem(position);
+    private final OnItemClickListener clickListener;
 
-            // Find the TextView in the list_item.xml layout with the ID magnitude
-            TextView magnitude = (TextView) listItemView.findViewById(R.id.magnitude);
-
-            // Get the magnitude from the current EarthQuakeData object,
-            double mag = currentEarthquake.getMagnitude();
+    /**
+     * Rows shown by the list, formatted in the background from earthquakes kept
+     * column by column rather than as one object per row
+     */
+    private EarthquakeRows rows;
 
-            // Set the proper background color on the magnitude circle.
-            // Fetch the background from the TextView, which is a GradientDrawable.
-            GradientDrawable magnitudeCircle = (GradientDrawable) magnitude.getBackground();
-            // Get the appropriate background color based on the current earthquake magnitude
-            int magnitudeColor = getMagnitudeColor(mag);
+    /**
+     * Rows the list will show once every pending update is applied.
+     * Only touched on {@link #diffExecutor}, which runs the updates one after the other.
+     */
+    private EarthquakeRows latest;
+
+    /** Background thread the updates of every adapter are built and diffed on */
+    private static final Executor diffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Magnitude circle colors resolved once, indexed by the integer part of the magnitude */
+    private final int[] magnitudeColors;
+
+    public EarthQuakeAdapter(@NonNull Context context, OnItemClickListener clickListener) {
+        this.context = context;
+        this.clickListener = clickListener;
+        magnitudeColors = new int[] {
+                ContextCompat.getColor(context, R.color.magnitude1),
+                ContextCompat.getColor(context, R.color.magnitude1),
+                ContextCompat.getColor(context, R.color.magnitude2),
+                ContextCompat.getColor(context, R.color.magnitude3),
+                ContextCompat.getColor(context, R.color.magnitude4),
+                ContextCompat.getColor(context, R.color.magnitude5),
+                ContextCompat.getColor(context, R.color.magnitude6),
+                ContextCompat.getColor(context, R.color.magnitude7),
+                ContextCompat.getColor(context, R.color.magnitude8),
+                ContextCompat.getColor(context, R.color.magnitude9),
+                ContextCompat.getColor(context, R.color.magnitude10plus)
+        };
+        rows = EarthquakeRows.format(new EarthquakeStore(), magnitudeColors);
+        latest = rows;
+        // Rows are identified by their event id, so they keep their views across updates
+        setHasStableIds(true);
+    }
 
-            // Set the color on the magnitude circle
-            magnitudeCircle.setColor(magnitudeColor);
+    public Context getContext() {
+        return context;
+    }
 
+    /**
+     * Return a read-only view of the earthquakes shown by the list.
+     */
+    public EarthquakeCatalog getEarthquakes() {
+        return rows.getEarthquakes();
+    }
 
-            // set this text on the magnitude TextView
-            magnitude.setText(formatMagnitude(mag));
+    public boolean isEmpty() {
+        return rows.size() == 0;
+    }
 
-            // Get the location from the current EarthQuakeData object
-            String location = currentEarthquake.getPlace();
+    @Override
+    public int getItemCount() {
+        return rows.size();
+    }
 
-            // Find the TextView in the list_item.xml layout with the ID primary location and offset location
-            TextView primary = (TextView) listItemView.findViewById(R.id.primaryLocation);
-            TextView offset = (TextView) listItemView.findViewById(R.id.offsetLocation);
+    @Override
+    public long getItemId(int position) {
+        return stableId(rows.getEarthquakes().getId(position));
+    }
 
-            //split location accordingly for better UI experience and set this text on the primary and offset TextViews
-            if(location.contains("of")) {
-                String[] pairLoc = location.split("of ");
-                offset.setText(String.format("%sof", pairLoc[0]));
-                primary.setText(pairLoc[1]);
-            }
-            else {
-                offset.setText(R.string.nearThe);
-                primary.setText(location);
+    /**
+     * Replace the earthquakes of the list. Their rows are formatted and the difference with
+     * the current list is computed on a background thread, so only the rows that actually
+     * changed are rebound, and binding them only assigns what was formatted.
+     */
+    public void submitEarthquakes(final List<EarthquakeData> earthquake) {
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final EarthquakeRows previous = latest;
+                // Only the columns are filled, the rows are never searched so no index is built
+                EarthquakeStore store = new EarthquakeStore();
+                store.addAll(earthquake);
+                final EarthquakeRows next = EarthquakeRows.format(store, magnitudeColors);
+                latest = next;
+
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new StoreDiffCallback(previous.getEarthquakes(), next.getEarthquakes()));
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        rows = next;
+                        diff.dispatchUpdatesTo(EarthQuakeAdapter.this);
+                    }
+                });
             }
+        });
+    }
 
-            // Get the time from the current EarthQuakeData object and convert in readable format
-            long time = currentEarthquake.getTime();
-            Date dateObject = new Date(time);
+    public void clear() {
+        submitEarthquakes(Collections.<EarthquakeData>emptyList());
+    }
 
-            // Find the TextView in the list_item.xml layout with the ID date
-            TextView date = (TextView) listItemView.findViewById(R.id.date);
-            // set this text on the date TextView
-            date.setText(formatDate(dateObject));
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        // Inflate the view and look its children up once, keeping them in the ViewHolder for later binds
+        View listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(listItemView);
+    }
 
-            // Find the TextView in the list_item.xml layout with the ID time
-            TextView displayTime = (TextView) listItemView.findViewById(R.id.time);
-            // set this text on the time TextView
-            displayTime.setText(formatTime(dateObject));
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        long start = System.nanoTime();
+
+        // Everything was formatted in the background, binding only assigns it
+        holder.magnitudeCircle.setColor(rows.getColor(position));
+        holder.magnitude.setText(rows.getMagnitude(position));
+
+        // The location was already split into its offset and primary location when parsed
+        EarthquakeStore earthquakes = rows.getEarthquakes();
+        String offset = earthquakes.getLocationOffset(position);
+        if (offset.isEmpty()) {
+            holder.offset.setText(R.string.nearThe);
+        } else {
+            holder.offset.setText(offset);
+        }
+        holder.primary.setText(earthquakes.getPrimaryLocation(position));
 
-            return listItemView;
+        holder.date.setText(rows.getDate(position));
+        holder.time.setText(rows.getTime(position));
 
+        EarthquakeMetrics.record(EarthquakeMetrics.Stage.BIND, System.nanoTime() - start);
     }
 
     /**
-     * Return the formatted magnitude string showing 1 decimal place (i.e. "3.2")
-     * from a decimal magnitude value.
+     * Return a 64-bit FNV-1a hash of the event id, used as the stable id of its row.
      */
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
+    private static long stableId(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
     /**
-     * Return the formatted date string (i.e. "Mar 3, 1984") from a Date object.
+     * Views of a list item, looked up once when the item is inflated.
      */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
-        return dateFormat.format(dateObject);
-    }
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magnitude;
+        final GradientDrawable magnitudeCircle;
+        final TextView offset;
+        final TextView primary;
+        final TextView date;
+        final TextView time;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            magnitude = (TextView) listItemView.findViewById(R.id.magnitude);
+            // Fetch the background from the TextView, which is a GradientDrawable.
+            magnitudeCircle = (GradientDrawable) magnitude.getBackground();
+            offset = (TextView) listItemView.findViewById(R.id.offsetLocation);
+            primary = (TextView) listItemView.findViewById(R.id.primaryLocation);
+            date = (TextView) listItemView.findViewById(R.id.date);
+            time = (TextView) listItemView.findViewById(R.id.time);
+            listItemView.setOnClickListener(this);
+        }
 
-    /**
-     * Return the formatted date string (i.e. "4:30 PM") from a Date object.
-     */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
+        @Override
+        public void onClick(View view) {
+            int position = getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && clickListener != null) {
+                clickListener.onItemClick(rows.getEarthquakes().get(position));
+            }
+        }
     }
 
     /**
-     * Return the color for magnitude according to tha magnitude value in integer forma.
+     * Compares two snapshots of the list by event id, and by revision for their contents.
      */
-    private int getMagnitudeColor(double magnitude) {
-        int magnitudeColorResourceId;
-        switch((int) magnitude) {
-            case 0 :
-            case 1 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude1);
-                break;
-            }
-            case 2 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude2);
-                break;
-            }
-            case 3 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude3);
-                break;
-            }
-            case 4 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude4);
-                break;
-            }
-            case 5 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude5);
-                break;
-            }
-            case 6 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude6);
-                break;
-            }
-            case 7 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude7);
-                break;
-            }
-            case 8 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude8);
-                break;
-            }
-            case 9 : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude9);
-                break;
-            }
-            default : {
-                magnitudeColorResourceId = ContextCompat.getColor(getContext(), R.color.magnitude10plus);
-                break;
-            }
+    private static final class StoreDiffCallback extends DiffUtil.Callback {
+        private final EarthquakeStore oldStore;
+        private final EarthquakeStore newStore;
 
+        StoreDiffCallback(EarthquakeStore oldStore, EarthquakeStore newStore) {
+            this.oldStore = oldStore;
+            this.newStore = newStore;
         }
 
-        return magnitudeColorResourceId;
+        @Override
+        public int getOldListSize() {
+            return oldStore.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newStore.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldStore.getId(oldItemPosition).equals(newStore.getId(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldStore.getUpdated(oldItemPosition) == newStore.getUpdated(newItemPosition)
+                    && oldStore.getMagnitude(oldItemPosition) == newStore.getMagnitude(newItemPosition)
+                    && oldStore.getTime(oldItemPosition) == newStore.getTime(newItemPosition)
+                    && oldStore.getPrimaryLocation(oldItemPosition).equals(newStore.getPrimaryLocation(newItemPosition))
+                    && oldStore.getLocationOffset(oldItemPosition).equals(newStore.getLocationOffset(newItemPosition));
+        }
     }
 
 }
@@ -5,11 +5,15 @@ import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.Window;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -17,54 +21,75 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.Loader;
+import androidx.appcompat.widget.SearchView;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.work.Data;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 
-import java.util.ArrayList;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.UUID;
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<EarthquakeData>> {
+public class EarthquakeActivity extends AppCompatActivity {
 
     private static final String EA_LOG_TAG = EarthquakeActivity.class.getSimpleName();
 
-    private static final String USGS_REQUEST_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventtype=earthquake&orderby=time&minmag=6&limit=10";
     private EarthQuakeAdapter adapter;
-    private ListView earthquakeListView;
+    private RecyclerView earthquakeListView;
     private TextView emptyTextView;
     private ProgressBar loadingSpinner;
 
-    /**
-     * Constant value for the earthquake loader ID. We can choose any integer.
-     * This really only comes into play if you're using multiple loaders.
-     */
-    private static final int EARTHQUAKE_LOADER_ID = 1;
+    /** Loads the earthquakes and keeps them when the activity is recreated */
+    private EarthquakeViewModel viewModel;
+
+    /** How many rows before the end of the list the next page starts loading */
+    private static final int PREFETCH_DISTANCE = 5;
+
+    /** Boxes of the region menu: min and max latitude, min and max longitude */
+    private static final double[] AMERICAS = {-60, 75, -170, -30};
+    private static final double[] EUROPE_AFRICA = {-40, 72, -25, 60};
+    // Crosses the antimeridian, from India to Hawaii
+    private static final double[] ASIA_PACIFIC = {-50, 60, 60, -150};
+
+    /** Request code of the document picker of a catalog export to import */
+    private static final int REQUEST_IMPORT = 1;
+
+    /** Key of the id of the import in progress in the saved state */
+    private static final String KEY_IMPORT_WORK_ID = "import_work_id";
+
+    /** Id of the import this activity started, until its result is shown */
+    private UUID importWorkId;
+
+    /** Position to scroll to once the adapter has that many rows, -1 for none */
+    private int pendingScrollPosition = -1;
+
+    /** Records the frames of the activity into {@link EarthquakeMetrics} while it is resumed */
+    private Window.OnFrameMetricsAvailableListener frameListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        earthquakeListView = (ListView) findViewById(R.id.total_list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        earthquakeListView = (RecyclerView) findViewById(R.id.total_list);
+        final LinearLayoutManager layoutManager = (LinearLayoutManager) earthquakeListView.getLayoutManager();
 
         // Find a reference to the {@link TextView} in the layout
         emptyTextView = (TextView) findViewById(R.id.empty_text);
-        earthquakeListView.setEmptyView(emptyTextView);
 
         // Find a reference to the {@link ProgressBar} in the layout
         loadingSpinner = (ProgressBar) findViewById(R.id.loading_spinner);
 
-        // Create a new adapter that takes an empty list of earthquakes as input
-        adapter = new EarthQuakeAdapter(this, new ArrayList<EarthquakeData>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        earthquakeListView.setAdapter(adapter);
-
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create a new adapter that starts with an empty list of earthquakes
+        adapter = new EarthQuakeAdapter(this, new EarthQuakeAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                EarthquakeData currentEarthQuake = adapter.getItem(i);
+            public void onItemClick(EarthquakeData currentEarthQuake) {
                 Uri earthquakeUri = Uri.parse(currentEarthQuake.getUrl());
                 Intent intent = new Intent(Intent.ACTION_VIEW, earthquakeUri);
                 // Find an activity to hand the intent and start that activity.
@@ -75,47 +100,304 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
                 }
             }
         });
-        getSupportLoaderManager().initLoader(EARTHQUAKE_LOADER_ID, null, this).forceLoad();
-        Log.i(EA_LOG_TAG,"TEST: LoaderManager().initLoader() called");
 
+        // Show the empty state text whenever the list has no rows
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+                scrollToPendingPosition();
+            }
 
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+                scrollToPendingPosition();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter(adapter);
+
+        // Prefetch the next page once the user scrolls close to the end of the list
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = adapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition() >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    viewModel.loadNextPage();
+                }
+            }
+        });
+
+        // The view model starts loading when it is first created, and hands a recreated
+        // activity what it already loaded instead of loading it again
+        viewModel = new ViewModelProvider(this).get(EarthquakeViewModel.class);
+
+        // A list restored from a snapshot goes back to where it was scrolled. After a rotation, or
+        // with a saved state, the RecyclerView restores its own position.
+        final boolean restoresOwnPosition = savedInstanceState != null;
+        viewModel.getEarthquakes().observe(this, new Observer<List<EarthquakeData>>() {
+            @Override
+            public void onChanged(List<EarthquakeData> earthquakes) {
+                // The snapshot is restored in the background, its position comes with its earthquakes
+                int restoredScrollPosition = viewModel.takeRestoredScrollPosition();
+                if (!restoresOwnPosition && restoredScrollPosition > 0) {
+                    pendingScrollPosition = restoredScrollPosition;
+                }
+                if (!earthquakes.isEmpty()) {
+                    loadingSpinner.setVisibility(View.GONE);
+                }
+                // Only the rows that changed are rebound
+                adapter.submitEarthquakes(earthquakes);
+            }
+        });
+        viewModel.getStatus().observe(this, new Observer<EarthquakeViewModel.Status>() {
+            @Override
+            public void onChanged(EarthquakeViewModel.Status status) {
+                if (status == EarthquakeViewModel.Status.LOADING) {
+                    return;
+                }
+                loadingSpinner.setVisibility(View.GONE);
+
+                // Set empty state text to display "No earthquakes found."
+                emptyTextView.setText(R.string.noEarthquakeData);
+
+                //check internet connection
+                if (status == EarthquakeViewModel.Status.FAILED || !isNetworkAvailable(EarthquakeActivity.this)) {
+                    emptyTextView.setText(R.string.noInternetConnection);
+                }
+            }
+        });
+
+        // The import goes on without the activity, its result is shown by the one that is around
+        if (savedInstanceState != null && savedInstanceState.getString(KEY_IMPORT_WORK_ID) != null) {
+            observeImport(UUID.fromString(savedInstanceState.getString(KEY_IMPORT_WORK_ID)));
+        }
     }
 
-    @NonNull
     @Override
-    public Loader<List<EarthquakeData>> onCreateLoader(int id, @Nullable Bundle args) {
-        Log.i(EA_LOG_TAG,"TEST: onCreateLoader() is called");
-        // Create a new loader for the given URL
-        return new EarthquakeLoader(EarthquakeActivity.this, USGS_REQUEST_URL);
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (importWorkId != null) {
+            outState.putString(KEY_IMPORT_WORK_ID, importWorkId.toString());
+        }
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<List<EarthquakeData>> loader, List<EarthquakeData> result) {
-        Log.i(EA_LOG_TAG,"TEST: onLoadFinished() is called");
-        loadingSpinner.setVisibility(View.GONE);
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_IMPORT || resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        // The worker reads the document later, maybe after the process was restarted
+        Uri uri = data.getData();
+        getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        Toast.makeText(this, R.string.importStarted, Toast.LENGTH_SHORT).show();
+        observeImport(EarthquakeImportWorker.enqueue(this, uri.toString()));
+    }
 
-        // Clear the adapter of previous earthquake data
-        adapter.clear();
+    @Override
+    protected void onStart() {
+        super.onStart();
+        viewModel.setVisible(true);
+    }
 
-        // Set empty state text to display "No earthquakes found."
-        emptyTextView.setText(R.string.noEarthquakeData);
+    @Override
+    protected void onStop() {
+        super.onStop();
+        viewModel.setVisible(false);
+        // Saved with the loaded earthquakes, in case the process is killed in the background
+        LinearLayoutManager layoutManager = (LinearLayoutManager) earthquakeListView.getLayoutManager();
+        viewModel.setScrollPosition(layoutManager.findFirstVisibleItemPosition());
+    }
 
-        //check internet connection
-        if(result == null || !isNetworkAvailable(EarthquakeActivity.this)) {
-            emptyTextView.setText(R.string.noInternetConnection);
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            if (frameListener == null) {
+                frameListener = EarthquakeMetrics.newFrameListener(getWindowManager().getDefaultDisplay().getRefreshRate());
+            }
+            getWindow().addOnFrameMetricsAvailableListener(frameListener, new Handler(Looper.getMainLooper()));
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            getWindow().removeOnFrameMetricsAvailableListener(frameListener);
         }
+    }
+
+    /**
+     * Print the load pipeline metrics with
+     * "adb shell dumpsys activity com.example.quakereport/.EarthquakeActivity".
+     */
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd, @NonNull PrintWriter writer,
+                     @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        EarthquakeMetrics.dump(prefix, writer);
+    }
 
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (result != null && !result.isEmpty()) {
-            adapter.addAll(result);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+
+        // The filter outlives the activity, check the items it was built from
+        EarthquakeFilter filter = viewModel.getFilter();
+
+        // Narrow the list down to the matching places with every letter typed
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        if (!filter.placeQuery.isEmpty()) {
+            searchItem.expandActionView();
+            searchView.setQuery(filter.placeQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                viewModel.setPlaceQuery(newText);
+                return true;
+            }
+        });
+
+        menu.findItem(R.id.action_realtime).setChecked(viewModel.isRealtime());
+        if (filter.minMagnitude >= 8) {
+            menu.findItem(R.id.min_magnitude_8).setChecked(true);
+        } else if (filter.minMagnitude >= 7) {
+            menu.findItem(R.id.min_magnitude_7).setChecked(true);
+        }
+        if (viewModel.getWindowMillis() <= 7 * EarthquakeViewModel.DAY_MILLIS) {
+            menu.findItem(R.id.window_week).setChecked(true);
+        } else if (viewModel.getWindowMillis() > EarthquakeViewModel.DEFAULT_WINDOW_MILLIS) {
+            menu.findItem(R.id.window_year).setChecked(true);
         }
+        if (filter.order == EarthquakeFilter.Order.OLDEST_FIRST) {
+            menu.findItem(R.id.sort_oldest).setChecked(true);
+        } else if (filter.order == EarthquakeFilter.Order.LARGEST_FIRST) {
+            menu.findItem(R.id.sort_largest).setChecked(true);
+        }
+        if (filter.hasRegion()) {
+            if (filter.minLongitude == AMERICAS[2]) {
+                menu.findItem(R.id.region_americas).setChecked(true);
+            } else if (filter.minLongitude == EUROPE_AFRICA[2]) {
+                menu.findItem(R.id.region_europe_africa).setChecked(true);
+            } else if (filter.minLongitude == ASIA_PACIFIC[2]) {
+                menu.findItem(R.id.region_asia_pacific).setChecked(true);
+            }
+        }
+        return true;
     }
 
     @Override
-    public void onLoaderReset(@NonNull Loader<List<EarthquakeData>> loader) {
-        Log.i(EA_LOG_TAG,"TEST: onLoadReset() is called");
-        adapter.clear();
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        // Resource IDs aren't constants in every build, so the items are matched one by one
+        int itemId = item.getItemId();
+        if (itemId == R.id.action_refresh) {
+            viewModel.refresh();
+            return true;
+        }
+        if (itemId == R.id.action_import) {
+            // A USGS catalog export, in CSV or GeoJSON
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {"text/csv", "text/comma-separated-values",
+                    "application/json", "application/geo+json", "application/octet-stream"});
+            startActivityForResult(intent, REQUEST_IMPORT);
+            return true;
+        }
+        if (itemId == R.id.action_realtime) {
+            boolean isRealtime = !item.isChecked();
+            viewModel.setRealtime(isRealtime);
+            item.setChecked(isRealtime);
+            return true;
+        }
+
+        if (itemId == R.id.min_magnitude_6) {
+            viewModel.setMinMagnitude(EarthquakeViewModel.BASE_MIN_MAGNITUDE);
+        } else if (itemId == R.id.min_magnitude_7) {
+            viewModel.setMinMagnitude(7);
+        } else if (itemId == R.id.min_magnitude_8) {
+            viewModel.setMinMagnitude(8);
+        } else if (itemId == R.id.window_week) {
+            viewModel.setWindow(7 * EarthquakeViewModel.DAY_MILLIS);
+        } else if (itemId == R.id.window_month) {
+            viewModel.setWindow(EarthquakeViewModel.DEFAULT_WINDOW_MILLIS);
+        } else if (itemId == R.id.window_year) {
+            viewModel.setWindow(365 * EarthquakeViewModel.DAY_MILLIS);
+        } else if (itemId == R.id.sort_newest) {
+            viewModel.setOrder(EarthquakeFilter.Order.NEWEST_FIRST);
+        } else if (itemId == R.id.sort_oldest) {
+            viewModel.setOrder(EarthquakeFilter.Order.OLDEST_FIRST);
+        } else if (itemId == R.id.sort_largest) {
+            viewModel.setOrder(EarthquakeFilter.Order.LARGEST_FIRST);
+        } else if (itemId == R.id.region_anywhere) {
+            viewModel.setRegion(-90, 90, -180, 180);
+        } else if (itemId == R.id.region_americas) {
+            viewModel.setRegion(AMERICAS[0], AMERICAS[1], AMERICAS[2], AMERICAS[3]);
+        } else if (itemId == R.id.region_europe_africa) {
+            viewModel.setRegion(EUROPE_AFRICA[0], EUROPE_AFRICA[1], EUROPE_AFRICA[2], EUROPE_AFRICA[3]);
+        } else if (itemId == R.id.region_asia_pacific) {
+            viewModel.setRegion(ASIA_PACIFIC[0], ASIA_PACIFIC[1], ASIA_PACIFIC[2], ASIA_PACIFIC[3]);
+        } else {
+            return super.onOptionsItemSelected(item);
+        }
+        item.setChecked(true);
+        return true;
+    }
+
+    /**
+     * Show the statistics of the imported archive once the import is done.
+     */
+    private void observeImport(final UUID workId) {
+        importWorkId = workId;
+        WorkManager.getInstance(this).getWorkInfoByIdLiveData(workId).observe(this, new Observer<WorkInfo>() {
+            @Override
+            public void onChanged(WorkInfo workInfo) {
+                if (workInfo == null || !workInfo.getState().isFinished() || !workId.equals(importWorkId)) {
+                    return;
+                }
+                importWorkId = null;
+                if (workInfo.getState() == WorkInfo.State.SUCCEEDED) {
+                    Data output = workInfo.getOutputData();
+                    Toast.makeText(EarthquakeActivity.this, getString(R.string.importFinished,
+                            output.getInt(EarthquakeImportWorker.KEY_COUNT, 0),
+                            output.getString(EarthquakeImportWorker.KEY_TOP_REGION)), Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(EarthquakeActivity.this, R.string.importFailed, Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    private void updateEmptyView() {
+        emptyTextView.setVisibility(adapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Scroll to the restored position once the first rows are in the adapter.
+     */
+    private void scrollToPendingPosition() {
+        if (pendingScrollPosition >= 0 && adapter.getItemCount() > 0) {
+            earthquakeListView.scrollToPosition(Math.min(pendingScrollPosition, adapter.getItemCount() - 1));
+            pendingScrollPosition = -1;
+        }
     }
 
     private static boolean isNetworkAvailable(Context context) {
@@ -126,4 +408,4 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         return isConnected;
     }
 
-}
\ No newline at end of file
+}
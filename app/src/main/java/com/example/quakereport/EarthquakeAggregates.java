@@ -0,0 +1,371 @@
+package com.example.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Running statistics of a set of earthquakes: counts per UTC day, a magnitude histogram, the
+ * energy released per region and the largest magnitude of every UTC hour. They are kept up to
+ * date as earthquakes come in rather than recomputed: adding an earthquake, or replacing the
+ * previous version of a revised one, only touches its own day, bin, region and hour.
+ *
+ * The region of an earthquake is its primary location, i.e. "Japan" or "Fiji region".
+ * Energy is estimated from the magnitude with the Gutenberg-Richter relation
+ * log10(E) = 1.5 M + 4.8, in joules.
+ *
+ * Statistics of a large catalog (i.e. an {@link EarthquakeArchive}) are computed on every core
+ * with {@link #summarize}. Not thread safe.
+ */
+public final class EarthquakeAggregates {
+
+    public static final long HOUR_MILLIS = 60L * 60 * 1000;
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    /** Width of a bin of the magnitude histogram */
+    public static final double MAGNITUDE_BIN_WIDTH = 0.5;
+
+    /** Bins of the histogram, the last one holds magnitude 10 and above, the first one anything below 0.5 */
+    public static final int MAGNITUDE_BINS = 21;
+
+    /** Catalog ranges smaller than this are summarized on one thread */
+    private static final int SPLIT_THRESHOLD = 16 * 1024;
+
+    private int count;
+    private double totalEnergy;
+
+    /** Number of earthquakes per day, keyed by the start of the UTC day */
+    private final Map<Long, int[]> dailyCounts = new HashMap<>();
+
+    private final int[] magnitudeHistogram = new int[MAGNITUDE_BINS];
+
+    /** Energy released per region in joules, and the number of earthquakes it adds up */
+    private final Map<String, double[]> regionEnergy = new HashMap<>();
+
+    /**
+     * Magnitudes of every hour, keyed by the start of the UTC hour, as a count per magnitude
+     * in hundredths. The largest is the last key, and the few distinct magnitudes of an hour
+     * keep the update cheap whether a revision raises or lowers it.
+     */
+    private final Map<Long, TreeMap<Integer, int[]>> hourlyMagnitudes = new HashMap<>();
+
+    /** What each earthquake added, by id, so a revision can take it back out. Null when not tracked */
+    private final Map<String, Contribution> contributions;
+
+    /**
+     * Create empty statistics that earthquakes can be added to and revised in.
+     */
+    public EarthquakeAggregates() {
+        this(true);
+    }
+
+    private EarthquakeAggregates(boolean isTrackingRevisions) {
+        contributions = isTrackingRevisions ? new HashMap<String, Contribution>() : null;
+    }
+
+    /**
+     * Compute the statistics of every earthquake of {@code catalog}, splitting it across the
+     * cores with fork-join. The result doesn't keep track of ids, which would cost memory
+     * for every earthquake, so it can't be revised: {@link #update} and {@link #remove} throw.
+     */
+    public static EarthquakeAggregates summarize(EarthquakeCatalog catalog) {
+        return ForkJoinPool.commonPool().invoke(new SummarizeTask(catalog, 0, catalog.size()));
+    }
+
+    /**
+     * Add an earthquake, or if one with the same id was added before, replace it.
+     */
+    public void update(EarthquakeData earthquake) {
+        if (contributions == null) {
+            throw new IllegalStateException("Revisions are not tracked");
+        }
+        Contribution previous = contributions.get(earthquake.getId());
+        if (previous != null) {
+            add(previous, -1);
+        }
+        Contribution contribution = new Contribution(earthquake.getTime(), earthquake.getMagnitude(),
+                earthquake.getPrimaryLocation());
+        contributions.put(earthquake.getId(), contribution);
+        add(contribution, 1);
+    }
+
+    public void updateAll(List<EarthquakeData> earthquakes) {
+        for (EarthquakeData earthquake : earthquakes) {
+            update(earthquake);
+        }
+    }
+
+    /**
+     * Take out the earthquake with the given id, i.e. once USGS deleted it.
+     */
+    public void remove(String id) {
+        if (contributions == null) {
+            throw new IllegalStateException("Revisions are not tracked");
+        }
+        Contribution previous = contributions.remove(id);
+        if (previous != null) {
+            add(previous, -1);
+        }
+    }
+
+    public void clear() {
+        count = 0;
+        totalEnergy = 0;
+        dailyCounts.clear();
+        Arrays.fill(magnitudeHistogram, 0);
+        regionEnergy.clear();
+        hourlyMagnitudes.clear();
+        if (contributions != null) {
+            contributions.clear();
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Return the energy released by all the earthquakes, in joules.
+     */
+    public double getTotalEnergy() {
+        return totalEnergy;
+    }
+
+    /**
+     * Return the number of earthquakes of the UTC day holding {@code time}.
+     */
+    public int getDailyCount(long time) {
+        int[] dayCount = dailyCounts.get(floor(time, DAY_MILLIS));
+        return dayCount != null ? dayCount[0] : 0;
+    }
+
+    /**
+     * Return the number of earthquakes of every day that has any, by the start of the UTC day.
+     */
+    public SortedMap<Long, Integer> getDailyCounts() {
+        SortedMap<Long, Integer> result = new TreeMap<>();
+        for (Map.Entry<Long, int[]> entry : dailyCounts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Return a copy of the magnitude histogram: bin {@code i} counts the magnitudes from
+     * {@code i * MAGNITUDE_BIN_WIDTH} up to the next bin.
+     */
+    public int[] getMagnitudeHistogram() {
+        return magnitudeHistogram.clone();
+    }
+
+    /**
+     * Return the energy released in {@code region}, in joules.
+     */
+    public double getEnergy(String region) {
+        double[] energy = regionEnergy.get(region);
+        return energy != null ? energy[0] : 0;
+    }
+
+    public Map<String, Double> getEnergyByRegion() {
+        Map<String, Double> result = new HashMap<>();
+        for (Map.Entry<String, double[]> entry : regionEnergy.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Return the largest magnitude of the UTC hour holding {@code time}, or NaN if it had no earthquake.
+     */
+    public double getMaxMagnitude(long time) {
+        TreeMap<Integer, int[]> magnitudes = hourlyMagnitudes.get(floor(time, HOUR_MILLIS));
+        return magnitudes != null ? magnitudes.lastKey() / 100.0 : Double.NaN;
+    }
+
+    /**
+     * Return the largest magnitude of every hour that had an earthquake, by the start of the UTC hour.
+     */
+    public SortedMap<Long, Double> getMaxMagnitudeByHour() {
+        SortedMap<Long, Double> result = new TreeMap<>();
+        for (Map.Entry<Long, TreeMap<Integer, int[]>> entry : hourlyMagnitudes.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().lastKey() / 100.0);
+        }
+        return result;
+    }
+
+    /**
+     * Return the energy released by an earthquake of the given magnitude, in joules.
+     */
+    public static double energyOf(double magnitude) {
+        return Math.pow(10, 1.5 * magnitude + 4.8);
+    }
+
+    /**
+     * Add ({@code sign} 1) or take out ({@code sign} -1) what an earthquake contributes.
+     */
+    private void add(Contribution contribution, int sign) {
+        count += sign;
+        totalEnergy = count == 0 ? 0 : totalEnergy + sign * contribution.energy;
+
+        long day = floor(contribution.time, DAY_MILLIS);
+        int[] dayCount = dailyCounts.get(day);
+        if (dayCount == null) {
+            dayCount = new int[1];
+            dailyCounts.put(day, dayCount);
+        }
+        dayCount[0] += sign;
+        if (dayCount[0] == 0) {
+            dailyCounts.remove(day);
+        }
+
+        magnitudeHistogram[binOf(contribution.magnitude)] += sign;
+
+        double[] energy = regionEnergy.get(contribution.region);
+        if (energy == null) {
+            energy = new double[2];
+            regionEnergy.put(contribution.region, energy);
+        }
+        energy[0] += sign * contribution.energy;
+        energy[1] += sign;
+        // Leave no rounding residue behind once the last earthquake of a region is taken out
+        if (energy[1] == 0) {
+            regionEnergy.remove(contribution.region);
+        }
+
+        long hour = floor(contribution.time, HOUR_MILLIS);
+        TreeMap<Integer, int[]> magnitudes = hourlyMagnitudes.get(hour);
+        if (magnitudes == null) {
+            magnitudes = new TreeMap<>();
+            hourlyMagnitudes.put(hour, magnitudes);
+        }
+        int hundredths = (int) Math.round(contribution.magnitude * 100);
+        int[] magnitudeCount = magnitudes.get(hundredths);
+        if (magnitudeCount == null) {
+            magnitudeCount = new int[1];
+            magnitudes.put(hundredths, magnitudeCount);
+        }
+        magnitudeCount[0] += sign;
+        if (magnitudeCount[0] == 0) {
+            magnitudes.remove(hundredths);
+            if (magnitudes.isEmpty()) {
+                hourlyMagnitudes.remove(hour);
+            }
+        }
+    }
+
+    /**
+     * Add the statistics of {@code other}, computed over other earthquakes, to these. What is
+     * taken from {@code other} is copied, so the two don't share any count afterwards.
+     */
+    private void merge(EarthquakeAggregates other) {
+        count += other.count;
+        totalEnergy += other.totalEnergy;
+        for (Map.Entry<Long, int[]> entry : other.dailyCounts.entrySet()) {
+            int[] dayCount = dailyCounts.get(entry.getKey());
+            if (dayCount == null) {
+                dailyCounts.put(entry.getKey(), entry.getValue().clone());
+            } else {
+                dayCount[0] += entry.getValue()[0];
+            }
+        }
+        for (int i = 0; i < MAGNITUDE_BINS; i++) {
+            magnitudeHistogram[i] += other.magnitudeHistogram[i];
+        }
+        for (Map.Entry<String, double[]> entry : other.regionEnergy.entrySet()) {
+            double[] energy = regionEnergy.get(entry.getKey());
+            if (energy == null) {
+                regionEnergy.put(entry.getKey(), entry.getValue().clone());
+            } else {
+                energy[0] += entry.getValue()[0];
+                energy[1] += entry.getValue()[1];
+            }
+        }
+        for (Map.Entry<Long, TreeMap<Integer, int[]>> entry : other.hourlyMagnitudes.entrySet()) {
+            TreeMap<Integer, int[]> magnitudes = hourlyMagnitudes.get(entry.getKey());
+            if (magnitudes == null) {
+                magnitudes = new TreeMap<>();
+                hourlyMagnitudes.put(entry.getKey(), magnitudes);
+            }
+            for (Map.Entry<Integer, int[]> magnitude : entry.getValue().entrySet()) {
+                int[] magnitudeCount = magnitudes.get(magnitude.getKey());
+                if (magnitudeCount == null) {
+                    magnitudes.put(magnitude.getKey(), magnitude.getValue().clone());
+                } else {
+                    magnitudeCount[0] += magnitude.getValue()[0];
+                }
+            }
+        }
+    }
+
+    private static int binOf(double magnitude) {
+        int bin = (int) Math.floor(magnitude / MAGNITUDE_BIN_WIDTH);
+        return Math.max(0, Math.min(MAGNITUDE_BINS - 1, bin));
+    }
+
+    /**
+     * Return the start of the period of {@code periodMillis} holding {@code time}, also before 1970.
+     */
+    private static long floor(long time, long periodMillis) {
+        long start = time - time % periodMillis;
+        return start > time ? start - periodMillis : start;
+    }
+
+    /**
+     * What one earthquake adds to the statistics.
+     */
+    private static final class Contribution {
+        final long time;
+        final double magnitude;
+        final String region;
+        final double energy;
+
+        Contribution(long time, double magnitude, String region) {
+            this.time = time;
+            this.magnitude = magnitude;
+            this.region = region;
+            this.energy = energyOf(magnitude);
+        }
+    }
+
+    /**
+     * Summarizes a range of a catalog, halving it until it is small enough for one thread.
+     */
+    private static final class SummarizeTask extends RecursiveTask<EarthquakeAggregates> {
+        // ForkJoinTask is Serializable, but tasks are never serialized
+        private static final long serialVersionUID = 1L;
+
+        private final EarthquakeCatalog catalog;
+        private final int start;
+        private final int end;
+
+        SummarizeTask(EarthquakeCatalog catalog, int start, int end) {
+            this.catalog = catalog;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected EarthquakeAggregates compute() {
+            if (end - start <= SPLIT_THRESHOLD) {
+                EarthquakeAggregates aggregates = new EarthquakeAggregates(false);
+                for (int i = start; i < end; i++) {
+                    aggregates.add(new Contribution(catalog.getTime(i), catalog.getMagnitude(i),
+                            catalog.getPrimaryLocation(i)), 1);
+                }
+                return aggregates;
+            }
+
+            int middle = (start + end) >>> 1;
+            SummarizeTask second = new SummarizeTask(catalog, middle, end);
+            second.fork();
+            EarthquakeAggregates aggregates = new SummarizeTask(catalog, start, middle).compute();
+            aggregates.merge(second.join());
+            return aggregates;
+        }
+    }
+}
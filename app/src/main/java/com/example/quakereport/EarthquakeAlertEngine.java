@@ -0,0 +1,347 @@
+package com.example.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks earthquakes against a set of {@link EarthquakeAlertRule}s as they come in.
+ *
+ * The rules are compiled once into primitive arrays, sorted by magnitude so an earthquake
+ * stops at the first rule asking for more than its magnitude. Sites are turned into unit
+ * vectors and radii into the cosine of the angle they span, so checking a site costs a dot
+ * product instead of the trigonometry of a great-circle distance. Count rules keep the times
+ * of their last matching earthquakes in a ring per site or region, allocated the first time
+ * that site or region matches. Besides remembering its id, checking an earthquake against
+ * the rules allocates nothing.
+ *
+ * Earthquakes older than the start time given when compiled are ignored, so loading past
+ * pages doesn't raise alerts, and each earthquake is only checked the first time it is seen.
+ * Ids are only remembered for {@link #RETENTION_MILLIS} (or the largest window of a rule if
+ * longer) before the newest earthquake checked; the start time moves up with them, so the
+ * earthquakes they drop are ignored too. Not thread safe.
+ */
+public final class EarthquakeAlertEngine {
+
+    /** Receives the alerts, on the thread the earthquakes are checked on */
+    public interface Listener {
+        void onAlert(EarthquakeAlertRule rule, EarthquakeData earthquake);
+    }
+
+    private static final int REGION_ROWS = (int) Math.ceil(180 / EarthquakeAlertRule.REGION_DEGREES);
+    private static final int REGION_COLUMNS = (int) Math.ceil(360 / EarthquakeAlertRule.REGION_DEGREES);
+
+    /** How far behind the newest earthquake checked ids are kept, at least */
+    public static final long RETENTION_MILLIS = EarthquakeAggregates.DAY_MILLIS;
+
+    private final Listener listener;
+    private long ignoreBefore;
+
+    /** How far behind the newest earthquake checked ids are kept */
+    private final long retentionMillis;
+
+    private final int ruleCount;
+    private final EarthquakeAlertRule[] rules;
+    private final double[] minMagnitudes;
+    private final int[] minCounts;
+    private final long[] windowMillis;
+
+    /** Sites of rule r are [siteStarts[r], siteStarts[r + 1]) of the site arrays */
+    private final int[] siteStarts;
+    private final double[] siteX;
+    private final double[] siteY;
+    private final double[] siteZ;
+
+    /** Cosine of the angle from the center of the Earth the radius of the rule of each site spans */
+    private final double[] siteMinCosines;
+
+    /** Recent times of matching earthquakes of each count rule, null for the other rules */
+    private final Windows[] windows;
+
+    /** Times of the earthquakes already checked by id, only those recent and large enough for a rule */
+    private final Map<String, Long> checkedIds = new HashMap<>();
+
+    /** Time of the newest earthquake checked, and the newest when the ids were last pruned */
+    private long newestTime = Long.MIN_VALUE;
+    private long prunedAt = Long.MIN_VALUE;
+
+    /**
+     * Compile {@code rules}, ignoring the earthquakes that happened before {@code ignoreBefore}
+     * (in milliseconds).
+     */
+    public EarthquakeAlertEngine(List<EarthquakeAlertRule> rules, long ignoreBefore, Listener listener) {
+        this.listener = listener;
+        this.ignoreBefore = ignoreBefore;
+
+        List<EarthquakeAlertRule> sorted = new ArrayList<>(rules);
+        Collections.sort(sorted, new Comparator<EarthquakeAlertRule>() {
+            @Override
+            public int compare(EarthquakeAlertRule first, EarthquakeAlertRule second) {
+                return Double.compare(first.minMagnitude, second.minMagnitude);
+            }
+        });
+
+        ruleCount = sorted.size();
+        this.rules = sorted.toArray(new EarthquakeAlertRule[0]);
+        minMagnitudes = new double[ruleCount];
+        minCounts = new int[ruleCount];
+        windowMillis = new long[ruleCount];
+        siteStarts = new int[ruleCount + 1];
+        windows = new Windows[ruleCount];
+
+        int sites = 0;
+        for (EarthquakeAlertRule rule : sorted) {
+            sites += rule.siteLatitudes.length;
+        }
+        siteX = new double[sites];
+        siteY = new double[sites];
+        siteZ = new double[sites];
+        siteMinCosines = new double[sites];
+
+        long longestWindow = 0;
+        int site = 0;
+        for (int r = 0; r < ruleCount; r++) {
+            EarthquakeAlertRule rule = this.rules[r];
+            minMagnitudes[r] = rule.minMagnitude;
+            minCounts[r] = rule.minCount;
+            windowMillis[r] = rule.windowMillis;
+            longestWindow = Math.max(longestWindow, rule.windowMillis);
+            siteStarts[r] = site;
+            double minCosine = Math.cos(Math.min(Math.PI, rule.radiusKm / EarthquakeSpatialIndex.EARTH_RADIUS_KM));
+            for (int i = 0; i < rule.siteLatitudes.length; i++, site++) {
+                double latitude = Math.toRadians(rule.siteLatitudes[i]);
+                double longitude = Math.toRadians(rule.siteLongitudes[i]);
+                siteX[site] = Math.cos(latitude) * Math.cos(longitude);
+                siteY[site] = Math.cos(latitude) * Math.sin(longitude);
+                siteZ[site] = Math.sin(latitude);
+                siteMinCosines[site] = minCosine;
+            }
+            if (rule.minCount > 1) {
+                windows[r] = new Windows(rule.minCount);
+            }
+        }
+        siteStarts[ruleCount] = site;
+        retentionMillis = Math.max(RETENTION_MILLIS, longestWindow);
+    }
+
+    /**
+     * Return the number of earthquake ids remembered as checked.
+     */
+    public int getCheckedCount() {
+        return checkedIds.size();
+    }
+
+    /**
+     * Check every earthquake of the list against the rules, in a single pass.
+     */
+    public void checkAll(List<EarthquakeData> earthquakes) {
+        for (int i = 0, size = earthquakes.size(); i < size; i++) {
+            check(earthquakes.get(i));
+        }
+    }
+
+    /**
+     * Remember the earthquakes as checked without checking them, i.e. the ones restored from
+     * before a restart, which were checked then.
+     */
+    public void skipAll(List<EarthquakeData> earthquakes) {
+        for (int i = 0, size = earthquakes.size(); i < size; i++) {
+            EarthquakeData earthquake = earthquakes.get(i);
+            if (ruleCount > 0 && earthquake.getMagnitude() >= minMagnitudes[0] && earthquake.getTime() >= ignoreBefore) {
+                remember(earthquake);
+            }
+        }
+    }
+
+    /**
+     * Check an earthquake against the rules, alerting the listener for each rule it sets off.
+     */
+    public void check(EarthquakeData earthquake) {
+        double magnitude = earthquake.getMagnitude();
+        long time = earthquake.getTime();
+        if (ruleCount == 0 || magnitude < minMagnitudes[0] || time < ignoreBefore) {
+            return;
+        }
+        if (!remember(earthquake)) {
+            return;
+        }
+
+        // The position of the earthquake is only worked out if a rule needs it
+        boolean hasVector = false;
+        double x = 0;
+        double y = 0;
+        double z = 0;
+        int region = -1;
+
+        for (int r = 0; r < ruleCount && minMagnitudes[r] <= magnitude; r++) {
+            int key;
+            if (siteStarts[r] < siteStarts[r + 1]) {
+                if (!hasVector) {
+                    double latitude = Math.toRadians(earthquake.getLatitude());
+                    double longitude = Math.toRadians(earthquake.getLongitude());
+                    x = Math.cos(latitude) * Math.cos(longitude);
+                    y = Math.cos(latitude) * Math.sin(longitude);
+                    z = Math.sin(latitude);
+                    hasVector = true;
+                }
+                // Counted for the first site it is close enough to
+                key = -1;
+                for (int site = siteStarts[r]; site < siteStarts[r + 1]; site++) {
+                    if (x * siteX[site] + y * siteY[site] + z * siteZ[site] >= siteMinCosines[site]) {
+                        key = site - siteStarts[r];
+                        break;
+                    }
+                }
+                if (key < 0) {
+                    continue;
+                }
+            } else {
+                if (region < 0) {
+                    region = regionOf(earthquake.getLatitude(), earthquake.getLongitude());
+                }
+                key = region;
+            }
+
+            if (minCounts[r] == 1 || windows[r].add(key, time, windowMillis[r])) {
+                listener.onAlert(rules[r], earthquake);
+            }
+        }
+    }
+
+    /**
+     * Remember an earthquake as checked, pruning the ids that fell out of the retention as the
+     * newest time moves on. Return false if it was checked before.
+     */
+    private boolean remember(EarthquakeData earthquake) {
+        long time = earthquake.getTime();
+        if (checkedIds.containsKey(earthquake.getId())) {
+            return false;
+        }
+        checkedIds.put(earthquake.getId(), time);
+        newestTime = Math.max(newestTime, time);
+
+        // Pruning walks every id, so it waits until a whole retention went by since the last time
+        if (prunedAt == Long.MIN_VALUE) {
+            prunedAt = newestTime;
+        } else if (newestTime - prunedAt >= retentionMillis) {
+            prunedAt = newestTime;
+            ignoreBefore = Math.max(ignoreBefore, newestTime - retentionMillis);
+            for (Iterator<Long> times = checkedIds.values().iterator(); times.hasNext(); ) {
+                if (times.next() < ignoreBefore) {
+                    times.remove();
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int regionOf(double latitude, double longitude) {
+        int row = (int) Math.floor((latitude + 90) / EarthquakeAlertRule.REGION_DEGREES);
+        int column = (int) Math.floor((longitude + 180) / EarthquakeAlertRule.REGION_DEGREES);
+        row = Math.max(0, Math.min(REGION_ROWS - 1, row));
+        column = Math.max(0, Math.min(REGION_COLUMNS - 1, column));
+        return row * REGION_COLUMNS + column;
+    }
+
+    /**
+     * Times of the last matching earthquakes of a count rule, per site or region, in one ring
+     * of {@code count} times for each. Keys are found by open addressing in primitive arrays,
+     * which only grow when they are half full.
+     */
+    private static final class Windows {
+        private static final int EMPTY = -1;
+
+        private final int count;
+        private int[] keys;
+        private long[] times;
+        private int[] heads;
+        private int[] filled;
+        private int size;
+
+        Windows(int count) {
+            this.count = count;
+            allocate(16);
+        }
+
+        /**
+         * Record a matching earthquake of {@code key} at {@code time}. Return true if the last
+         * {@code count} ones of the key all happened within {@code windowMillis}, in which case
+         * the key starts counting over so the same earthquakes don't alert twice.
+         */
+        boolean add(int key, long time, long windowMillis) {
+            int slot = slotOf(key);
+            int base = slot * count;
+            times[base + heads[slot]] = time;
+            heads[slot] = (heads[slot] + 1) % count;
+            if (filled[slot] < count) {
+                filled[slot]++;
+            }
+            if (filled[slot] < count) {
+                return false;
+            }
+
+            // Earthquakes don't always come in order, so the window is the spread of the ring
+            long oldest = Long.MAX_VALUE;
+            long newest = Long.MIN_VALUE;
+            for (int i = base; i < base + count; i++) {
+                oldest = Math.min(oldest, times[i]);
+                newest = Math.max(newest, times[i]);
+            }
+            if (newest - oldest > windowMillis) {
+                return false;
+            }
+            filled[slot] = 0;
+            return true;
+        }
+
+        private int slotOf(int key) {
+            int mask = keys.length - 1;
+            int slot = (key * 0x9e3779b9) >>> 1 & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                return slotOf(key);
+            }
+            keys[slot] = key;
+            size++;
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldTimes = times;
+            int[] oldHeads = heads;
+            int[] oldFilled = filled;
+            allocate(oldKeys.length * 2);
+            size = 0;
+            for (int old = 0; old < oldKeys.length; old++) {
+                if (oldKeys[old] == EMPTY) {
+                    continue;
+                }
+                int slot = slotOf(oldKeys[old]);
+                System.arraycopy(oldTimes, old * count, times, slot * count, count);
+                heads[slot] = oldHeads[old];
+                filled[slot] = oldFilled[old];
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            times = new long[capacity * count];
+            heads = new int[capacity];
+            filled = new int[capacity];
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.quakereport;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+/**
+ * Posts a notification for each alert of an {@link EarthquakeAlertEngine}, opening the USGS
+ * page of the earthquake when tapped.
+ */
+public class EarthquakeAlertNotifier implements EarthquakeAlertEngine.Listener {
+
+    private static final String CHANNEL_ID = "earthquake_alerts";
+
+    private final Context context;
+
+    public EarthquakeAlertNotifier(Context context) {
+        this.context = context.getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    this.context.getString(R.string.alertChannelName), NotificationManager.IMPORTANCE_HIGH);
+            this.context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public void onAlert(EarthquakeAlertRule rule, EarthquakeData earthquake) {
+        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getUrl()));
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        String text = context.getString(R.string.alertText, earthquake.getMagnitude(), earthquake.getPlace());
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_dialog_alert)
+                .setContentTitle(rule.name)
+                .setContentText(text)
+                .setWhen(earthquake.getTime())
+                .setShowWhen(true)
+                .setContentIntent(pendingIntent)
+                .setAutoCancel(true)
+                .setPriority(NotificationCompat.PRIORITY_HIGH);
+
+        // One notification per earthquake, so a later rule it sets off replaces the first
+        NotificationManagerCompat.from(context).notify(earthquake.getId(), 0, builder.build());
+    }
+}
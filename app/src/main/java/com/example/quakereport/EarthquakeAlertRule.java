@@ -0,0 +1,80 @@
+package com.example.quakereport;
+
+/**
+ * Condition for an alert, i.e. "M6+ within 300 km of our sites" or "3 or more M4+ in one
+ * region within an hour". Rules are immutable and built from {@link #minMagnitude} with the
+ * {@code within...} and {@code atLeast} methods, then compiled by {@link EarthquakeAlertEngine}.
+ *
+ * Count rules ({@link #atLeast}) count the matching earthquakes separately for each site, or
+ * without sites for each cell of a {@link #REGION_DEGREES} degree grid (about 220 km across
+ * at the equator).
+ */
+public final class EarthquakeAlertRule {
+
+    /** Size of the regions the earthquakes of a count rule without sites are counted in */
+    public static final double REGION_DEGREES = 2;
+
+    private static final double[] NO_SITES = new double[0];
+
+    /** Shown in the alert */
+    public final String name;
+
+    public final double minMagnitude;
+
+    /** Latitudes and longitudes of the sites, in degrees; empty for anywhere */
+    public final double[] siteLatitudes;
+    public final double[] siteLongitudes;
+
+    /** Largest distance from a site, in kilometers */
+    public final double radiusKm;
+
+    /** Matching earthquakes needed within {@link #windowMillis}, 1 to alert on every one */
+    public final int minCount;
+
+    public final long windowMillis;
+
+    private EarthquakeAlertRule(String name, double minMagnitude, double[] siteLatitudes, double[] siteLongitudes,
+                                double radiusKm, int minCount, long windowMillis) {
+        this.name = name;
+        this.minMagnitude = minMagnitude;
+        this.siteLatitudes = siteLatitudes;
+        this.siteLongitudes = siteLongitudes;
+        this.radiusKm = radiusKm;
+        this.minCount = minCount;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Return a rule alerting on every earthquake of at least {@code minMagnitude}, anywhere.
+     */
+    public static EarthquakeAlertRule minMagnitude(String name, double minMagnitude) {
+        return new EarthquakeAlertRule(name, minMagnitude, NO_SITES, NO_SITES, 0, 1, 0);
+    }
+
+    /**
+     * Return this rule restricted to the earthquakes within {@code radiusKm} of one of the sites.
+     */
+    public EarthquakeAlertRule withinRadius(double radiusKm, double[] siteLatitudes, double[] siteLongitudes) {
+        if (siteLatitudes.length != siteLongitudes.length) {
+            throw new IllegalArgumentException("Every site needs a latitude and a longitude");
+        }
+        return new EarthquakeAlertRule(name, minMagnitude, siteLatitudes.clone(), siteLongitudes.clone(),
+                radiusKm, minCount, windowMillis);
+    }
+
+    /**
+     * Return this rule only alerting once {@code minCount} matching earthquakes happened in
+     * the same site or region within {@code windowMillis}.
+     */
+    public EarthquakeAlertRule atLeast(int minCount, long windowMillis) {
+        if (minCount < 1) {
+            throw new IllegalArgumentException("Count must be at least 1");
+        }
+        return new EarthquakeAlertRule(name, minMagnitude, siteLatitudes, siteLongitudes, radiusKm,
+                minCount, windowMillis);
+    }
+
+    public boolean hasSites() {
+        return siteLatitudes.length > 0;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only catalog of a historical import, kept in a file of fixed-width records read
+ * through memory-mapped I/O. Values are read straight out of the mapping, which the system
+ * pages in and out as needed, so scanning millions of earthquakes costs next to no heap.
+ * Only the strings of an earthquake are decoded, and only when asked for.
+ *
+ * The file holds a header, then one {@link #RECORD_SIZE} byte record per earthquake, then the
+ * string table the records point into:
+ * <pre>
+ * header:  magic (int), version (int), count (int), reserved (int)
+ * record:  time (long), updated (long), latitude, longitude, depth (float),
+ *          offset of its strings in the string table (int), magnitude in hundredths (short)
+ * strings: id, location offset, primary location and url, each as a UTF-8 length (unsigned
+ *          short) and bytes. The url is left empty when it is the USGS event page of the id.
+ * </pre>
+ * Coordinates are kept as floats, which is accurate to about 2 meters, and magnitudes
+ * (which USGS rounds to 2 decimals at most) as hundredths so they read back exactly. Files are written with
+ * {@link Writer}, in the order the earthquakes were imported.
+ */
+public final class EarthquakeArchive implements EarthquakeCatalog {
+
+    /** "QKAR" */
+    private static final int MAGIC = 0x514b4152;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 34;
+
+    private static final int TIME = 0;
+    private static final int UPDATED = 8;
+    private static final int LATITUDE = 16;
+    private static final int LONGITUDE = 20;
+    private static final int DEPTH = 24;
+    private static final int STRINGS = 28;
+    private static final int MAGNITUDE = 32;
+
+    /** Url of every USGS event page, followed by the event id */
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private final int size;
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer strings;
+
+    private EarthquakeArchive(int size, MappedByteBuffer records, MappedByteBuffer strings) {
+        this.size = size;
+        this.records = records;
+        this.strings = strings;
+    }
+
+    /**
+     * Map the archive in {@code file}. The file is closed right away, the mapping stays valid
+     * until the archive is garbage collected.
+     */
+    public static EarthquakeArchive open(File file) throws IOException {
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated earthquake archive " + file);
+                }
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not an earthquake archive " + file);
+            }
+
+            int size = header.getInt(8);
+            long recordsSize = (long) size * RECORD_SIZE;
+            long stringsSize = channel.size() - HEADER_SIZE - recordsSize;
+            if (size < 0 || stringsSize < 0 || stringsSize > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt earthquake archive " + file);
+            }
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, recordsSize);
+            MappedByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + recordsSize, stringsSize);
+            return new EarthquakeArchive(size, records, strings);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getId(int position) {
+        return readString(stringsOf(position), 0);
+    }
+
+    @Override
+    public double getMagnitude(int position) {
+        return records.getShort(recordOf(position) + MAGNITUDE) / 100.0;
+    }
+
+    @Override
+    public String getPlace(int position) {
+        String offset = getLocationOffset(position);
+        String primary = getPrimaryLocation(position);
+        return offset.isEmpty() ? primary : offset + " " + primary;
+    }
+
+    @Override
+    public String getLocationOffset(int position) {
+        return readString(stringsOf(position), 1);
+    }
+
+    @Override
+    public String getPrimaryLocation(int position) {
+        return readString(stringsOf(position), 2);
+    }
+
+    @Override
+    public long getTime(int position) {
+        return records.getLong(recordOf(position) + TIME);
+    }
+
+    @Override
+    public long getUpdated(int position) {
+        return records.getLong(recordOf(position) + UPDATED);
+    }
+
+    @Override
+    public String getUrl(int position) {
+        int offset = stringsOf(position);
+        String url = readString(offset, 3);
+        return url.isEmpty() ? EVENT_PAGE_URL + readString(offset, 0) : url;
+    }
+
+    @Override
+    public double getLatitude(int position) {
+        return records.getFloat(recordOf(position) + LATITUDE);
+    }
+
+    @Override
+    public double getLongitude(int position) {
+        return records.getFloat(recordOf(position) + LONGITUDE);
+    }
+
+    @Override
+    public double getDepth(int position) {
+        return records.getFloat(recordOf(position) + DEPTH);
+    }
+
+    @Override
+    public EarthquakeData get(int position) {
+        return new EarthquakeData(getId(position), getMagnitude(position), getPlace(position), getTime(position),
+                getUpdated(position), getUrl(position), getLatitude(position), getLongitude(position),
+                getDepth(position));
+    }
+
+    /**
+     * Return the {@code count} earthquakes starting at {@code start}, or fewer at the end of the archive.
+     */
+    public List<EarthquakeData> getPage(int start, int count) {
+        int end = Math.min(size, start + count);
+        List<EarthquakeData> earthquakes = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            earthquakes.add(get(i));
+        }
+        return earthquakes;
+    }
+
+    private int recordOf(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        return position * RECORD_SIZE;
+    }
+
+    private int stringsOf(int position) {
+        return records.getInt(recordOf(position) + STRINGS);
+    }
+
+    /**
+     * Decode the {@code index}th string of the entry at {@code offset} of the string table.
+     */
+    private String readString(int offset, int index) {
+        for (int i = 0; i < index; i++) {
+            offset += 2 + (strings.getShort(offset) & 0xffff);
+        }
+        int length = strings.getShort(offset) & 0xffff;
+        byte[] bytes = new byte[length];
+        // Absolute reads leave the position of the shared mapping alone, for other threads
+        for (int i = 0; i < length; i++) {
+            bytes[i] = strings.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes an archive as earthquakes come in, without holding them in memory: records go
+     * straight to the file and strings to a temporary file appended to it by {@link #finish()}.
+     * The archive only replaces {@code file} once finished.
+     */
+    public static final class Writer {
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final File file;
+        private final File partFile;
+        private final File stringsFile;
+        private final DataOutputStream records;
+        private final DataOutputStream strings;
+        private int size;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.partFile = new File(file.getPath() + ".part");
+            this.stringsFile = new File(file.getPath() + ".strings");
+            records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE));
+            strings = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stringsFile), BUFFER_SIZE));
+            // Filled in by finish(), once the count is known
+            records.write(new byte[HEADER_SIZE]);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void add(EarthquakeData earthquake) throws IOException {
+            if (size == Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException("Too many earthquakes for one archive");
+            }
+            int offset = strings.size();
+            // DataOutputStream stops counting at Integer.MAX_VALUE
+            if (offset == Integer.MAX_VALUE) {
+                throw new IOException("String table of the archive is full");
+            }
+
+            records.writeLong(earthquake.getTime());
+            records.writeLong(earthquake.getUpdated());
+            records.writeFloat((float) earthquake.getLatitude());
+            records.writeFloat((float) earthquake.getLongitude());
+            records.writeFloat((float) earthquake.getDepth());
+            records.writeInt(offset);
+            records.writeShort((int) Math.round(earthquake.getMagnitude() * 100));
+
+            String id = earthquake.getId();
+            String url = earthquake.getUrl();
+            writeString(id);
+            writeString(earthquake.getLocationOffset());
+            writeString(earthquake.getPrimaryLocation());
+            writeString(url.equals(EVENT_PAGE_URL + id) ? "" : url);
+            size++;
+        }
+
+        /**
+         * Complete the archive and move it in place of the file.
+         */
+        public void finish() throws IOException {
+            records.close();
+            strings.close();
+            try (RandomAccessFile output = new RandomAccessFile(partFile, "rw");
+                 FileInputStream input = new FileInputStream(stringsFile)) {
+                FileChannel target = output.getChannel();
+                FileChannel source = input.getChannel();
+                long position = target.size();
+                long count = source.size();
+                for (long copied = 0; copied < count; ) {
+                    copied += source.transferTo(copied, count - copied, target.position(position + copied));
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0).flip();
+                target.write(header, 0);
+                target.force(true);
+            } finally {
+                stringsFile.delete();
+            }
+            if (!partFile.renameTo(file)) {
+                partFile.delete();
+                throw new IOException("Could not move the archive to " + file);
+            }
+        }
+
+        /**
+         * Give up on the archive, leaving the file as it was.
+         */
+        public void abort() {
+            try {
+                records.close();
+                strings.close();
+            } catch (IOException e) {
+                // Deleted anyway
+            }
+            partFile.delete();
+            stringsFile.delete();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            // Unreasonably long values are cut, at a character boundary
+            int length = Math.min(bytes.length, 0xffff);
+            while (length < bytes.length && (bytes[length] & 0xc0) == 0x80) {
+                length--;
+            }
+            strings.writeShort(length);
+            strings.write(bytes, 0, length);
+        }
+    }
+}
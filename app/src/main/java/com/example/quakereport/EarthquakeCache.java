@@ -0,0 +1,218 @@
+package com.example.quakereport;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-disk copy of the earthquakes returned by each USGS query, keyed by the query URL and
+ * the USGS event id, together with the ETag/Last-Modified validators of the response
+ * so the query can be revalidated with a conditional GET. Only the {@link #MAX_QUERIES}
+ * queries downloaded last are kept.
+ */
+public final class EarthquakeCache extends SQLiteOpenHelper {
+
+    /** Name of the database file */
+    private static final String DATABASE_NAME = "earthquakes.db";
+
+    /** Database version. If you change the database schema, you must increment the database version. */
+    private static final int DATABASE_VERSION = 4;
+
+    /** Number of queries kept, the ones downloaded longest ago are dropped first */
+    static final int MAX_QUERIES = 8;
+
+    private static final String TABLE_EARTHQUAKES = "earthquakes";
+    private static final String COLUMN_FEED = "feed";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_MAGNITUDE = "magnitude";
+    private static final String COLUMN_PLACE = "place";
+    private static final String COLUMN_TIME = "time";
+    private static final String COLUMN_UPDATED = "updated";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_LATITUDE = "latitude";
+    private static final String COLUMN_LONGITUDE = "longitude";
+    private static final String COLUMN_DEPTH = "depth";
+
+    private static final String TABLE_FEEDS = "feeds";
+    private static final String COLUMN_ETAG = "etag";
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
+    private static final String COLUMN_DOWNLOADED = "downloaded";
+
+    private static EarthquakeCache instance;
+
+    /**
+     * Validators of the last successful response of a query.
+     */
+    public static final class Validators {
+        public final String etag;
+        public final String lastModified;
+
+        Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Return the cache of the application, creating it on first use.
+     */
+    public static synchronized EarthquakeCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new EarthquakeCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private EarthquakeCache(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Open the cache in the database file {@code name}, or in memory if it is null (i.e. in tests).
+     */
+    EarthquakeCache(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EARTHQUAKES + " ("
+                + COLUMN_FEED + " TEXT NOT NULL, "
+                + COLUMN_ID + " TEXT NOT NULL, "
+                + COLUMN_MAGNITUDE + " REAL NOT NULL, "
+                + COLUMN_PLACE + " TEXT NOT NULL, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_UPDATED + " INTEGER NOT NULL, "
+                + COLUMN_URL + " TEXT NOT NULL, "
+                + COLUMN_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_LONGITUDE + " REAL NOT NULL, "
+                + COLUMN_DEPTH + " REAL NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_FEED + ", " + COLUMN_ID + "))");
+        db.execSQL("CREATE TABLE " + TABLE_FEEDS + " ("
+                + COLUMN_URL + " TEXT PRIMARY KEY, "
+                + COLUMN_ETAG + " TEXT, "
+                + COLUMN_LAST_MODIFIED + " TEXT, "
+                + COLUMN_DOWNLOADED + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The cache can always be downloaded again, so simply start over
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EARTHQUAKES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FEEDS);
+        onCreate(db);
+    }
+
+    /**
+     * Return the cached earthquakes of the query, newest first, or null if it was never cached.
+     */
+    public List<EarthquakeData> getEarthquakes(String feedUrl) {
+        if (getValidators(feedUrl) == null) {
+            return null;
+        }
+
+        List<EarthquakeData> earthquakes = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_EARTHQUAKES,
+                new String[] {COLUMN_ID, COLUMN_MAGNITUDE, COLUMN_PLACE, COLUMN_TIME, COLUMN_UPDATED, COLUMN_URL,
+                        COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_DEPTH},
+                COLUMN_FEED + " = ?", new String[] {feedUrl},
+                null, null, COLUMN_TIME + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                earthquakes.add(new EarthquakeData(cursor.getString(0), cursor.getDouble(1),
+                        cursor.getString(2), cursor.getLong(3), cursor.getLong(4), cursor.getString(5),
+                        cursor.getDouble(6), cursor.getDouble(7), cursor.getDouble(8)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Return the validators of the last successful response of the query, or null if it was never cached.
+     */
+    public Validators getValidators(String feedUrl) {
+        Cursor cursor = getReadableDatabase().query(TABLE_FEEDS,
+                new String[] {COLUMN_ETAG, COLUMN_LAST_MODIFIED},
+                COLUMN_URL + " = ?", new String[] {feedUrl},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Validators(cursor.getString(0), cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the time in milliseconds the cached earthquakes of the query were downloaded,
+     * 0 if it was never cached. A 304 Not Modified leaves it as it was, the earthquakes
+     * haven't changed since.
+     */
+    public long getDownloadTime(String feedUrl) {
+        Cursor cursor = getReadableDatabase().query(TABLE_FEEDS,
+                new String[] {COLUMN_DOWNLOADED},
+                COLUMN_URL + " = ?", new String[] {feedUrl},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the cached earthquakes of the query with a freshly downloaded response, dropping
+     * the queries downloaded longest ago beyond {@link #MAX_QUERIES}.
+     */
+    public void putEarthquakes(String feedUrl, List<EarthquakeData> earthquakes, String etag, String lastModified) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_EARTHQUAKES, COLUMN_FEED + " = ?", new String[] {feedUrl});
+
+            ContentValues values = new ContentValues();
+            for (EarthquakeData earthquake : earthquakes) {
+                values.clear();
+                values.put(COLUMN_FEED, feedUrl);
+                values.put(COLUMN_ID, earthquake.getId());
+                values.put(COLUMN_MAGNITUDE, earthquake.getMagnitude());
+                values.put(COLUMN_PLACE, earthquake.getPlace());
+                values.put(COLUMN_TIME, earthquake.getTime());
+                values.put(COLUMN_UPDATED, earthquake.getUpdated());
+                values.put(COLUMN_URL, earthquake.getUrl());
+                values.put(COLUMN_LATITUDE, earthquake.getLatitude());
+                values.put(COLUMN_LONGITUDE, earthquake.getLongitude());
+                values.put(COLUMN_DEPTH, earthquake.getDepth());
+                db.insertWithOnConflict(TABLE_EARTHQUAKES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            ContentValues feed = new ContentValues();
+            feed.put(COLUMN_URL, feedUrl);
+            feed.put(COLUMN_ETAG, etag);
+            feed.put(COLUMN_LAST_MODIFIED, lastModified);
+            feed.put(COLUMN_DOWNLOADED, System.currentTimeMillis());
+            db.insertWithOnConflict(TABLE_FEEDS, null, feed, SQLiteDatabase.CONFLICT_REPLACE);
+
+            // A replaced row gets a new rowid, which orders the queries downloaded in the same millisecond
+            String evicted = "SELECT " + COLUMN_URL + " FROM " + TABLE_FEEDS
+                    + " ORDER BY " + COLUMN_DOWNLOADED + " DESC, rowid DESC LIMIT -1 OFFSET " + MAX_QUERIES;
+            db.execSQL("DELETE FROM " + TABLE_EARTHQUAKES + " WHERE " + COLUMN_FEED + " IN (" + evicted + ")");
+            db.execSQL("DELETE FROM " + TABLE_FEEDS + " WHERE " + COLUMN_URL + " IN (" + evicted + ")");
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.quakereport;
+
+/**
+ * Read-only, index based view of a set of earthquakes, newest first as loaded.
+ * Values are read column by column, so binding a row doesn't need an {@link EarthquakeData}.
+ */
+public interface EarthquakeCatalog {
+
+    /** Return the number of earthquakes in the catalog */
+    int size();
+
+    /** Return the USGS event id of the earthquake at {@code position} */
+    String getId(int position);
+
+    double getMagnitude(int position);
+
+    String getPlace(int position);
+
+    /** Return the distance and direction part of the place, empty if there is none */
+    String getLocationOffset(int position);
+
+    String getPrimaryLocation(int position);
+
+    long getTime(int position);
+
+    long getUpdated(int position);
+
+    String getUrl(int position);
+
+    /** Return the latitude of the epicenter, in degrees */
+    double getLatitude(int position);
+
+    /** Return the longitude of the epicenter, in degrees */
+    double getLongitude(int position);
+
+    /** Return the depth of the hypocenter, in kilometers */
+    double getDepth(int position);
+
+    /**
+     * Return a new {@link EarthquakeData} holding the earthquake at {@code position}.
+     */
+    EarthquakeData get(int position);
+}
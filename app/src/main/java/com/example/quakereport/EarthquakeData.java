@@ -1,16 +1,50 @@
 package com.example.quakereport;
 
 public class EarthquakeData {
+
+    /** Separates the offset (i.e. "12 km SSW") from the primary location in a USGS place */
+    private static final String LOCATION_SEPARATOR = " of ";
+
+    private String id;
     private double magnitude;
     private String place;
     private String url;
     private long time;
+    private long updated;
+    private String locationOffset;
+    private String primaryLocation;
+    private double latitude;
+    private double longitude;
+    private double depth;
 
-    public EarthquakeData(double magnitude, String place, long time, String url) {
+    public EarthquakeData(String id, double magnitude, String place, long time, long updated, String url,
+                          double latitude, double longitude, double depth) {
+        this.id = id;
         this.magnitude = magnitude;
         this.place = place;
         this.time = time;
+        this.updated = updated;
         this.url = url;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.depth = depth;
+
+        // Split the place once here rather than every time the earthquake is displayed
+        int separator = place.indexOf(LOCATION_SEPARATOR);
+        if (separator >= 0) {
+            this.locationOffset = place.substring(0, separator + LOCATION_SEPARATOR.length() - 1);
+            this.primaryLocation = place.substring(separator + LOCATION_SEPARATOR.length());
+        } else {
+            this.locationOffset = "";
+            this.primaryLocation = place;
+        }
+    }
+
+    /**
+     * Return the USGS event id (i.e. "us7000abcd") that identifies this earthquake across feeds.
+     */
+    public String getId(){
+        return id;
     }
 
     public double getMagnitude(){
@@ -21,6 +55,42 @@ public class EarthquakeData {
         return place;
     }
 
+    /**
+     * Return the distance and direction part of the place (i.e. "12 km SSW of"),
+     * or an empty string if the place has none.
+     */
+    public String getLocationOffset(){
+        return locationOffset;
+    }
+
+    /**
+     * Return the place without its offset (i.e. "Foo, Region").
+     */
+    public String getPrimaryLocation(){
+        return primaryLocation;
+    }
+
+    /**
+     * Return the latitude of the epicenter, in degrees.
+     */
+    public double getLatitude(){
+        return latitude;
+    }
+
+    /**
+     * Return the longitude of the epicenter, in degrees.
+     */
+    public double getLongitude(){
+        return longitude;
+    }
+
+    /**
+     * Return the depth of the hypocenter, in kilometers.
+     */
+    public double getDepth(){
+        return depth;
+    }
+
     public String getUrl(){
         return url;
     }
@@ -28,4 +98,11 @@ public class EarthquakeData {
     public long getTime(){
         return time;
     }
+
+    /**
+     * Return the time in milliseconds the event was most recently revised by USGS.
+     */
+    public long getUpdated(){
+        return updated;
+    }
 }
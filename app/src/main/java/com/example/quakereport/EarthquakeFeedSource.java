@@ -0,0 +1,20 @@
+package com.example.quakereport;
+
+import android.os.CancellationSignal;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where a {@link RealtimeFeed} gets its earthquakes from, i.e. a USGS summary feed
+ * ({@link SummaryFeedSource}), a long-poll or streaming endpoint, or a local mock server in tests.
+ */
+public interface EarthquakeFeedSource {
+
+    /**
+     * Return the earthquakes of the feed, or null if nothing changed since the previous call.
+     * A long-poll or streaming source may block until it has something to report.
+     * Cancelling {@code signal} aborts the call with an {@link android.os.OperationCanceledException}.
+     */
+    List<EarthquakeData> poll(CancellationSignal signal) throws IOException;
+}
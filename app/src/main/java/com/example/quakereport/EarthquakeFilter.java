@@ -0,0 +1,170 @@
+package com.example.quakereport;
+
+import android.net.Uri;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Magnitude band, time window, place search, region and sort order of the earthquakes to show.
+ * Answered locally by {@link EarthquakeQueryEngine}, or turned into a USGS request
+ * with {@link #buildUrl(String)} for the part that isn't held locally.
+ */
+public final class EarthquakeFilter {
+
+    /** Order of the earthquakes returned for a filter */
+    public enum Order {
+        NEWEST_FIRST,
+        OLDEST_FIRST,
+        LARGEST_FIRST
+    }
+
+    public final double minMagnitude;
+    public final double maxMagnitude;
+
+    /** Oldest time in milliseconds to include, {@link Long#MIN_VALUE} for no limit */
+    public final long startTime;
+
+    /** Newest time in milliseconds to include, {@link Long#MAX_VALUE} for no limit */
+    public final long endTime;
+
+    public final Order order;
+
+    /**
+     * Words the primary location must have words starting with, empty for any place.
+     * USGS can't search places, so it is only applied locally, see {@link EarthquakePlaceIndex}.
+     */
+    public final String placeQuery;
+
+    /**
+     * Box the epicenter must be in, edges included, the whole globe by default. A western edge
+     * east of the eastern edge crosses the antimeridian. Only applied locally, like the place
+     * search, see {@link EarthquakeSpatialIndex}.
+     */
+    public final double minLatitude;
+    public final double maxLatitude;
+    public final double minLongitude;
+    public final double maxLongitude;
+
+    public EarthquakeFilter(double minMagnitude, double maxMagnitude, long startTime, long endTime, Order order) {
+        this(minMagnitude, maxMagnitude, startTime, endTime, order, "");
+    }
+
+    public EarthquakeFilter(double minMagnitude, double maxMagnitude, long startTime, long endTime, Order order,
+                            String placeQuery) {
+        this(minMagnitude, maxMagnitude, startTime, endTime, order, placeQuery, -90, 90, -180, 180);
+    }
+
+    public EarthquakeFilter(double minMagnitude, double maxMagnitude, long startTime, long endTime, Order order,
+                            String placeQuery, double minLatitude, double maxLatitude,
+                            double minLongitude, double maxLongitude) {
+        this.minMagnitude = minMagnitude;
+        this.maxMagnitude = maxMagnitude;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.order = order;
+        this.placeQuery = placeQuery;
+        this.minLatitude = minLatitude;
+        this.maxLatitude = maxLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Return a filter of every earthquake of at least {@code minMagnitude}, newest first.
+     */
+    public static EarthquakeFilter minMagnitude(double minMagnitude) {
+        return new EarthquakeFilter(minMagnitude, Double.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Order.NEWEST_FIRST);
+    }
+
+    public EarthquakeFilter withMinMagnitude(double minMagnitude) {
+        return new EarthquakeFilter(minMagnitude, maxMagnitude, startTime, endTime, order, placeQuery,
+                minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    public EarthquakeFilter withTimeWindow(long startTime, long endTime) {
+        return new EarthquakeFilter(minMagnitude, maxMagnitude, startTime, endTime, order, placeQuery,
+                minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    public EarthquakeFilter withOrder(Order order) {
+        return new EarthquakeFilter(minMagnitude, maxMagnitude, startTime, endTime, order, placeQuery,
+                minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    public EarthquakeFilter withPlaceQuery(String placeQuery) {
+        return new EarthquakeFilter(minMagnitude, maxMagnitude, startTime, endTime, order, placeQuery,
+                minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    public EarthquakeFilter withRegion(double minLatitude, double maxLatitude, double minLongitude,
+                                       double maxLongitude) {
+        return new EarthquakeFilter(minMagnitude, maxMagnitude, startTime, endTime, order, placeQuery,
+                minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    /**
+     * Return true if the region is smaller than the whole globe.
+     */
+    public boolean hasRegion() {
+        return minLatitude > -90 || maxLatitude < 90 || maxLongitude - minLongitude < 360;
+    }
+
+    /**
+     * Return true if the earthquake matches the magnitude band and time window.
+     */
+    public boolean matches(double magnitude, long time) {
+        return magnitude >= minMagnitude && magnitude <= maxMagnitude && time >= startTime && time <= endTime;
+    }
+
+    /**
+     * Return the base USGS query restricted to this magnitude band and time window.
+     * Paging, magnitude and time parameters already in the base query are replaced.
+     */
+    public String buildUrl(String baseUrl) {
+        Uri baseUri = Uri.parse(baseUrl);
+        Uri.Builder builder = baseUri.buildUpon().clearQuery();
+
+        for (String name : baseUri.getQueryParameterNames()) {
+            if (isFilterParameter(name)) {
+                continue;
+            }
+            for (String value : baseUri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+
+        // USGS expects an ISO 8601 time, which is read as UTC when it has no time zone
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        builder.appendQueryParameter("minmagnitude", String.valueOf(minMagnitude));
+        if (maxMagnitude != Double.MAX_VALUE) {
+            builder.appendQueryParameter("maxmagnitude", String.valueOf(maxMagnitude));
+        }
+        if (startTime != Long.MIN_VALUE) {
+            builder.appendQueryParameter("starttime", isoFormat.format(new Date(startTime)));
+        }
+        if (endTime != Long.MAX_VALUE) {
+            builder.appendQueryParameter("endtime", isoFormat.format(new Date(endTime)));
+        }
+        return builder.build().toString();
+    }
+
+    private static boolean isFilterParameter(String name) {
+        switch (name) {
+            case "offset":
+            case "limit":
+            case "minmagnitude":
+            case "minmag":
+            case "maxmagnitude":
+            case "maxmag":
+            case "starttime":
+            case "endtime":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.quakereport;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+
+/**
+ * Formats the magnitude, date and time of list rows without allocating once warmed up:
+ * magnitudes come from a table of preformatted strings, dates and times are written
+ * into caller owned char buffers using a single reused {@link Calendar}.
+ * The output is the same as the "0.0" {@link DecimalFormat} and the "LLL dd, yyyy" and
+ * "h:mm a" {@link SimpleDateFormat}s of the default locale: the table and the month names
+ * are filled in with them, and digits are written with the zero digit of the locale.
+ * The String variants of the date and time share their results between rows as far as
+ * possible, for building {@link EarthquakeRows} ahead of binding.
+ * Not thread safe, each thread formatting rows needs its own instance.
+ */
+public final class EarthquakeFormatter {
+
+    /** Size of the char buffers handed to {@link #formatDate} and {@link #formatTime} */
+    public static final int BUFFER_SIZE = 32;
+
+    /** Magnitudes from 0.00 to 10.00, in hundredths, are served from {@link #magnitudeTable} */
+    private static final int MAX_TABLE_MAGNITUDE = 1000;
+
+    private final DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
+    private final String[] magnitudeTable = new String[MAX_TABLE_MAGNITUDE + 1];
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** Times of day formatted so far, by minute of the day */
+    private final String[] timeTable = new String[MINUTES_PER_DAY];
+
+    /** Last date formatted as a String, and its day as year * 1000 + day of the year */
+    private String lastDate;
+    private int lastDateKey = -1;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private final Calendar calendar = Calendar.getInstance();
+    private final String[] shortMonths = new String[12];
+    private final String[] amPm;
+    private final char zeroDigit;
+
+    public EarthquakeFormatter() {
+        amPm = DateFormatSymbols.getInstance().getAmPmStrings();
+        zeroDigit = DecimalFormatSymbols.getInstance().getZeroDigit();
+
+        // The stand-alone month names ("LLL") can differ from the ones of DateFormatSymbols
+        SimpleDateFormat monthFormat = new SimpleDateFormat("LLL");
+        Calendar month = Calendar.getInstance();
+        month.clear();
+        month.set(2000, Calendar.JANUARY, 1);
+        for (int i = 0; i < shortMonths.length; i++) {
+            month.set(Calendar.MONTH, i);
+            shortMonths[i] = monthFormat.format(month.getTime());
+        }
+    }
+
+    /**
+     * Return the formatted magnitude string showing 1 decimal place (i.e. "3.2")
+     * from a decimal magnitude value.
+     */
+    public String formatMagnitude(double magnitude) {
+        // USGS magnitudes have at most 2 decimals. Only those parsed exactly as such share an
+        // entry, as DecimalFormat rounds half-even on the exact value (4.35 is "4.3").
+        long hundredths = Math.round(magnitude * 100);
+        if (hundredths < 0 || hundredths > MAX_TABLE_MAGNITUDE || hundredths / 100.0 != magnitude) {
+            return magnitudeFormat.format(magnitude);
+        }
+        int index = (int) hundredths;
+        if (magnitudeTable[index] == null) {
+            magnitudeTable[index] = magnitudeFormat.format(magnitude);
+        }
+        return magnitudeTable[index];
+    }
+
+    /**
+     * Write the date (i.e. "Mar 03, 1984") of the time in milliseconds into {@code out}
+     * and return the number of chars written.
+     */
+    public int formatDate(long time, char[] out) {
+        calendar.setTimeInMillis(time);
+        int length = append(shortMonths[calendar.get(Calendar.MONTH)], out, 0);
+        out[length++] = ' ';
+        length = appendTwoDigits(calendar.get(Calendar.DAY_OF_MONTH), out, length);
+        out[length++] = ',';
+        out[length++] = ' ';
+        return appendNumber(calendar.get(Calendar.YEAR), 4, out, length);
+    }
+
+    /**
+     * Write the time of day (i.e. "4:30 PM") of the time in milliseconds into {@code out}
+     * and return the number of chars written.
+     */
+    public int formatTime(long time, char[] out) {
+        calendar.setTimeInMillis(time);
+        int hour = calendar.get(Calendar.HOUR);
+        int length = appendNumber(hour == 0 ? 12 : hour, 1, out, 0);
+        out[length++] = ':';
+        length = appendTwoDigits(calendar.get(Calendar.MINUTE), out, length);
+        out[length++] = ' ';
+        return append(amPm[calendar.get(Calendar.AM_PM)], out, length);
+    }
+
+    /**
+     * Return the date (i.e. "Mar 03, 1984") of the time in milliseconds. Consecutive times
+     * of the same day, as in a list sorted by time, share a single String.
+     */
+    public String formatDate(long time) {
+        calendar.setTimeInMillis(time);
+        int key = calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+        if (key != lastDateKey) {
+            lastDate = new String(buffer, 0, formatDate(time, buffer));
+            lastDateKey = key;
+        }
+        return lastDate;
+    }
+
+    /**
+     * Return the time of day (i.e. "4:30 PM") of the time in milliseconds,
+     * from a table filled in as minutes of the day are first seen.
+     */
+    public String formatTime(long time) {
+        calendar.setTimeInMillis(time);
+        int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        if (timeTable[minute] == null) {
+            timeTable[minute] = new String(buffer, 0, formatTime(time, buffer));
+        }
+        return timeTable[minute];
+    }
+
+    private static int append(String value, char[] out, int length) {
+        value.getChars(0, value.length(), out, length);
+        return length + value.length();
+    }
+
+    private int appendTwoDigits(int value, char[] out, int length) {
+        return appendNumber(value, 2, out, length);
+    }
+
+    /**
+     * Write {@code value} with at least {@code minDigits} digits, padded with zeros.
+     */
+    private int appendNumber(int value, int minDigits, char[] out, int length) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            out[i] = (char) (zeroDigit + value % 10);
+            value /= 10;
+        }
+        return length + digits;
+    }
+}
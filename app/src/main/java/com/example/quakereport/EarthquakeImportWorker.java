@@ -0,0 +1,192 @@
+package com.example.quakereport;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Imports a historical USGS catalog export into the {@link EarthquakeArchive} of the app, for
+ * offline analysis of years of events. The export is either downloaded from the USGS event
+ * service (a query with "format=csv" or "format=geojson" and no limit) or read from a
+ * content or file uri, i.e. an export the user picked, and streamed into the archive
+ * without ever being held in memory. Once imported, the archive is summarized with
+ * {@link EarthquakeAggregates#summarize} into the output of the work.
+ */
+public class EarthquakeImportWorker extends Worker {
+
+    private static final String LOG_TAG = EarthquakeImportWorker.class.getSimpleName();
+
+    /** Name of the unique work, a new import replaces the one in progress */
+    private static final String WORK_NAME = "earthquake_import";
+
+    /** Key of the input holding the url or uri of the export */
+    private static final String KEY_SOURCE = "source";
+
+    /** Keys of the output: number of earthquakes imported and region that released the most energy */
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_TOP_REGION = "top_region";
+
+    /** File of the archive, in the files directory of the app */
+    private static final String ARCHIVE_FILE_NAME = "earthquake_archive.bin";
+
+    private final CancellationSignal cancellationSignal = new CancellationSignal();
+
+    public EarthquakeImportWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Return the file the archive is imported to, which may not exist yet.
+     */
+    public static File getArchiveFile(Context context) {
+        return new File(context.getFilesDir(), ARCHIVE_FILE_NAME);
+    }
+
+    /**
+     * Import the export at {@code source}, an http(s) url or a content or file uri, and return
+     * the id of the work. The import only runs while storage isn't low, and downloads need a network.
+     */
+    public static UUID enqueue(Context context, String source) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(isRemote(source) ? NetworkType.CONNECTED : NetworkType.NOT_REQUIRED)
+                .setRequiresStorageNotLow(true)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(EarthquakeImportWorker.class)
+                .setConstraints(constraints)
+                .setInputData(new Data.Builder().putString(KEY_SOURCE, source).build())
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.REPLACE, request);
+        return request.getId();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String source = getInputData().getString(KEY_SOURCE);
+        if (source == null) {
+            return Result.failure();
+        }
+
+        File file = getArchiveFile(getApplicationContext());
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            if (isRemote(source)) {
+                URL url = QueryUtils.createUrl(source);
+                if (url == null) {
+                    return Result.failure();
+                }
+                urlConnection = QueryUtils.openConnection(url, cancellationSignal);
+                int responseCode = QueryUtils.sendRequest(urlConnection);
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    Log.e(LOG_TAG, "Error Response Code: " + responseCode);
+                    return Result.failure();
+                }
+                inputStream = QueryUtils.openResponseBody(urlConnection);
+            } else {
+                inputStream = getApplicationContext().getContentResolver().openInputStream(Uri.parse(source));
+                if (inputStream == null) {
+                    return Result.failure();
+                }
+            }
+
+            if (isCsv(source)) {
+                EarthquakeImporter.importCsv(inputStream, file, cancellationSignal);
+            } else {
+                EarthquakeImporter.importGeoJson(inputStream, file, cancellationSignal);
+            }
+            return Result.success(summarize(file));
+        } catch (OperationCanceledException e) {
+            // Stopped by WorkManager; the previous archive, if any, was left as it was
+            return Result.retry();
+        } catch (IOException e) {
+            // Most likely the download broke off, the import starts over on the next attempt.
+            // A file that can't be read won't read any better the next time.
+            Log.e(LOG_TAG, "Problem importing the earthquake catalog", e);
+            return isRemote(source) ? Result.retry() : Result.failure();
+        } finally {
+            cancellationSignal.setOnCancelListener(null);
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the earthquake catalog stream.", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onStopped() {
+        cancellationSignal.cancel();
+    }
+
+    /**
+     * Return the output of the work: the statistics of the imported archive, computed on every core.
+     */
+    private static Data summarize(File file) throws IOException {
+        EarthquakeAggregates aggregates = EarthquakeAggregates.summarize(EarthquakeArchive.open(file));
+
+        String topRegion = "";
+        double topEnergy = 0;
+        for (Map.Entry<String, Double> entry : aggregates.getEnergyByRegion().entrySet()) {
+            if (entry.getValue() > topEnergy) {
+                topRegion = entry.getKey();
+                topEnergy = entry.getValue();
+            }
+        }
+        return new Data.Builder()
+                .putInt(KEY_COUNT, aggregates.getCount())
+                .putString(KEY_TOP_REGION, topRegion)
+                .build();
+    }
+
+    private static boolean isRemote(String source) {
+        return source.startsWith("http://") || source.startsWith("https://");
+    }
+
+    /**
+     * Tell whether the export is CSV, from the "format" of a USGS query, the type of a picked
+     * document or else the file extension.
+     */
+    private boolean isCsv(String source) {
+        Uri uri = Uri.parse(source);
+        if (uri.isHierarchical() && uri.getQueryParameter("format") != null) {
+            return "csv".equalsIgnoreCase(uri.getQueryParameter("format"));
+        }
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            String type = getApplicationContext().getContentResolver().getType(uri);
+            if (type != null && !type.equals("application/octet-stream")) {
+                return type.equals("text/csv") || type.equals("text/comma-separated-values");
+            }
+        }
+        String path = uri.getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".csv");
+    }
+}
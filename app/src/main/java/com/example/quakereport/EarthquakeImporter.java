@@ -0,0 +1,264 @@
+package com.example.quakereport;
+
+import android.os.CancellationSignal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports catalog exports of the USGS event service (years of history, millions of events)
+ * into an {@link EarthquakeArchive}. Exports are read as a stream, one event at a time, and
+ * written straight to the archive, so the heap used doesn't grow with the size of the export.
+ * Both the GeoJSON ("format=geojson") and the CSV ("format=csv") exports are understood.
+ */
+public final class EarthquakeImporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Longest field of a CSV row, in characters. USGS fields are far shorter, a longer one is
+     * most likely a quote that is never closed, which would swallow the rest of the file.
+     */
+    static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    /** Earthquakes imported between two checks of the cancellation signal */
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    /** Columns of the CSV export the archive is built from */
+    private static final String COLUMN_TIME = "time";
+    private static final String COLUMN_LATITUDE = "latitude";
+    private static final String COLUMN_LONGITUDE = "longitude";
+    private static final String COLUMN_DEPTH = "depth";
+    private static final String COLUMN_MAGNITUDE = "mag";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_UPDATED = "updated";
+    private static final String COLUMN_PLACE = "place";
+
+    /** Page of an event in the CSV export, which has no url column */
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    /**
+     * This class is only meant to hold static variables and methods.
+     */
+    private EarthquakeImporter() {
+    }
+
+    /**
+     * Import a GeoJSON export into an archive at {@code file}, replacing it once the import is
+     * complete. Return the number of earthquakes imported. A document that isn't a GeoJSON
+     * FeatureCollection throws an {@link IOException}, and cancelling {@code signal} stops the
+     * import with an {@link android.os.OperationCanceledException}, both leaving the file as it was.
+     */
+    public static int importGeoJson(InputStream inputStream, File file, CancellationSignal signal) throws IOException {
+        final EarthquakeArchive.Writer writer = new EarthquakeArchive.Writer(file);
+        boolean isComplete = false;
+        try {
+            QueryUtils.readEarthquakes(inputStream, new QueryUtils.EarthquakeHandler() {
+                @Override
+                public void onEarthquake(EarthquakeData earthquake) throws IOException {
+                    writer.add(earthquake);
+                }
+            }, signal);
+            writer.finish();
+            isComplete = true;
+        } finally {
+            if (!isComplete) {
+                writer.abort();
+            }
+        }
+        return writer.size();
+    }
+
+    /**
+     * Same as {@link #importGeoJson}, for a CSV export. Rows that can't be read are skipped.
+     */
+    public static int importCsv(InputStream inputStream, File file, CancellationSignal signal) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        EarthquakeArchive.Writer writer = new EarthquakeArchive.Writer(file);
+        boolean isComplete = false;
+        try {
+            List<String> fields = new ArrayList<>();
+            if (!readRow(reader, fields)) {
+                throw new IOException("Empty CSV export");
+            }
+            // Some exports start with a byte order mark
+            if (fields.get(0).startsWith("\uFEFF")) {
+                fields.set(0, fields.get(0).substring(1));
+            }
+            int time = requireColumn(fields, COLUMN_TIME);
+            int latitude = requireColumn(fields, COLUMN_LATITUDE);
+            int longitude = requireColumn(fields, COLUMN_LONGITUDE);
+            int depth = requireColumn(fields, COLUMN_DEPTH);
+            int magnitude = requireColumn(fields, COLUMN_MAGNITUDE);
+            int id = requireColumn(fields, COLUMN_ID);
+            int updated = requireColumn(fields, COLUMN_UPDATED);
+            int place = requireColumn(fields, COLUMN_PLACE);
+            int columns = fields.size();
+
+            while (readRow(reader, fields)) {
+                if (writer.size() % CANCEL_CHECK_INTERVAL == 0) {
+                    QueryUtils.throwIfCanceled(signal);
+                }
+                if (fields.size() < columns) {
+                    continue;
+                }
+                try {
+                    String eventId = fields.get(id);
+                    writer.add(new EarthquakeData(eventId, parseDouble(fields.get(magnitude)), fields.get(place),
+                            parseIsoTime(fields.get(time)), parseIsoTime(fields.get(updated)), EVENT_PAGE_URL + eventId,
+                            parseDouble(fields.get(latitude)), parseDouble(fields.get(longitude)),
+                            parseDouble(fields.get(depth))));
+                } catch (NumberFormatException e) {
+                    // Skipped like a row that is too short
+                }
+            }
+            writer.finish();
+            isComplete = true;
+        } finally {
+            if (!isComplete) {
+                writer.abort();
+            }
+            reader.close();
+        }
+        return writer.size();
+    }
+
+    /**
+     * Read the next row of a CSV file into {@code fields}, unquoting quoted fields (which may
+     * hold commas, doubled quotes and line breaks). Return false at the end of the file.
+     * A field longer than {@link #MAX_FIELD_LENGTH} fails the import with an IOException.
+     */
+    static boolean readRow(BufferedReader reader, List<String> fields) throws IOException {
+        fields.clear();
+        String line = reader.readLine();
+        if (line == null) {
+            return false;
+        }
+
+        StringBuilder field = new StringBuilder();
+        boolean isQuoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (isQuoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        isQuoted = false;
+                    }
+                } else if (c == '"') {
+                    isQuoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (field.length() > MAX_FIELD_LENGTH) {
+                throw new IOException("CSV field longer than " + MAX_FIELD_LENGTH + " characters");
+            }
+            if (!isQuoted) {
+                break;
+            }
+            // The quoted field goes on on the next line
+            line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return true;
+    }
+
+    /**
+     * Return the milliseconds since the epoch of a UTC time as written by USGS,
+     * i.e. "2014-01-31T23:53:37.000Z". The fraction of a second is optional.
+     */
+    static long parseIsoTime(String value) {
+        if (value.length() < 19 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || value.charAt(16) != ':') {
+            throw new NumberFormatException("Not an ISO 8601 time: " + value);
+        }
+        int year = parseDigits(value, 0, 4);
+        int month = parseDigits(value, 5, 7);
+        int day = parseDigits(value, 8, 10);
+        int hour = parseDigits(value, 11, 13);
+        int minute = parseDigits(value, 14, 16);
+        int second = parseDigits(value, 17, 19);
+
+        int millis = 0;
+        int end = 19;
+        if (end < value.length() && value.charAt(end) == '.') {
+            int digits = 0;
+            for (end++; end < value.length() && Character.isDigit(value.charAt(end)); end++, digits++) {
+                // Only milliseconds are kept, further digits are dropped
+                if (digits < 3) {
+                    millis = millis * 10 + (value.charAt(end) - '0');
+                }
+            }
+            for (; digits < 3; digits++) {
+                millis *= 10;
+            }
+        }
+        if (end < value.length() && !(value.charAt(end) == 'Z' && end == value.length() - 1)) {
+            throw new NumberFormatException("Only UTC times are supported: " + value);
+        }
+
+        long days = daysFromCivil(year, month, day);
+        return (((days * 24 + hour) * 60 + minute) * 60 + second) * 1000 + millis;
+    }
+
+    /**
+     * Return the number of days from 1970-01-01 to the given date of the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new NumberFormatException("Invalid date " + year + "-" + month + "-" + day);
+        }
+        // Count years from March, so the leap day comes last
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int parseDigits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a digit in " + value);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Return the value of a numeric field, 0 when USGS left it empty.
+     */
+    private static double parseDouble(String value) {
+        return value.isEmpty() ? 0 : Double.parseDouble(value);
+    }
+
+    private static int requireColumn(List<String> header, String name) throws IOException {
+        int index = header.indexOf(name);
+        if (index < 0) {
+            throw new IOException("CSV export has no \"" + name + "\" column");
+        }
+        return index;
+    }
+}
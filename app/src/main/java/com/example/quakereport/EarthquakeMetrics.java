@@ -0,0 +1,171 @@
+package com.example.quakereport;
+
+import android.os.Build;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of the load pipeline, from the DNS lookup of a request to the frames
+ * showing its rows. Stages record into it from any thread without locking; read it back with
+ * the getters, or print it with {@link #dump}, which the activity hooks into
+ * "adb shell dumpsys activity com.example.quakereport/.EarthquakeActivity".
+ *
+ * The stages recorded here are also wrapped in {@link android.os.Trace} sections where they
+ * happen, so the same split shows up in systrace and Perfetto.
+ */
+public final class EarthquakeMetrics {
+
+    /** Stages whose duration is recorded */
+    public enum Stage {
+        /** Resolving the host of a request, only recorded by debug and benchmark builds */
+        DNS,
+        /** Opening the connection, including the TLS handshake (and the DNS lookup in release builds) */
+        CONNECT,
+        /** From the connection being open to the response headers being in */
+        FIRST_BYTE,
+        /** Time blocked reading the response body off the network */
+        DOWNLOAD,
+        /** Thread CPU time spent decoding and parsing a response, see {@link Counter#FEATURES} */
+        PARSE,
+        /** Binding one row of the list */
+        BIND,
+        /** Rendering one frame of the activity (Android N and up) */
+        FRAME
+    }
+
+    /** Events that are counted */
+    public enum Counter {
+        /** Response body bytes received, as sent on the wire (i.e. still compressed) */
+        BYTES_RECEIVED,
+        /** GeoJSON features parsed */
+        FEATURES,
+        /** Frames that took longer than one refresh period */
+        DROPPED_FRAMES,
+        /** Fetches that joined the request already in flight for the same query */
+        COALESCED_REQUESTS,
+        /** Fetches answered from the earthquakes of a recent request, without any request */
+        MEMORY_HITS
+    }
+
+    private static final int STAGES = Stage.values().length;
+
+    private static final AtomicLongArray stageCounts = new AtomicLongArray(STAGES);
+    private static final AtomicLongArray stageNanos = new AtomicLongArray(STAGES);
+    private static final AtomicLongArray stageMaxNanos = new AtomicLongArray(STAGES);
+    private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * This class is only meant to hold static variables and methods.
+     */
+    private EarthquakeMetrics() {
+    }
+
+    /**
+     * Record one run of {@code stage} that took {@code nanos} nanoseconds.
+     */
+    public static void record(Stage stage, long nanos) {
+        int index = stage.ordinal();
+        stageCounts.incrementAndGet(index);
+        stageNanos.addAndGet(index, nanos);
+        long max;
+        do {
+            max = stageMaxNanos.get(index);
+        } while (nanos > max && !stageMaxNanos.compareAndSet(index, max, nanos));
+    }
+
+    public static void increment(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * Return how many times {@code stage} was recorded.
+     */
+    public static long getCount(Stage stage) {
+        return stageCounts.get(stage.ordinal());
+    }
+
+    public static long getTotalNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public static long getMaxNanos(Stage stage) {
+        return stageMaxNanos.get(stage.ordinal());
+    }
+
+    public static long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * Return the mean parse time of one feature, in nanoseconds.
+     */
+    public static long getParseNanosPerFeature() {
+        long features = getCount(Counter.FEATURES);
+        return features == 0 ? 0 : getTotalNanos(Stage.PARSE) / features;
+    }
+
+    /**
+     * Return a listener recording the frames of a window and counting the ones that took
+     * longer than a refresh period of a display running at {@code refreshRate} Hz as dropped.
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    public static Window.OnFrameMetricsAvailableListener newFrameListener(float refreshRate) {
+        final long frameBudgetNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+        return new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCount) {
+                long nanos = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+                record(Stage.FRAME, nanos);
+                if (nanos > frameBudgetNanos) {
+                    increment(Counter.DROPPED_FRAMES, 1);
+                }
+            }
+        };
+    }
+
+    /**
+     * Forget everything recorded so far, i.e. before measuring a scenario.
+     */
+    public static void reset() {
+        for (int i = 0; i < STAGES; i++) {
+            stageCounts.set(i, 0);
+            stageNanos.set(i, 0);
+            stageMaxNanos.set(i, 0);
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Print every stage (count, mean and max in milliseconds) and counter.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Earthquake metrics:");
+        for (Stage stage : Stage.values()) {
+            long count = getCount(stage);
+            writer.print(prefix);
+            writer.println(String.format(Locale.US, "  %-10s count=%d mean=%.3fms max=%.3fms", stage, count,
+                    count == 0 ? 0 : toMillis(getTotalNanos(stage) / count), toMillis(getMaxNanos(stage))));
+        }
+        for (Counter counter : Counter.values()) {
+            writer.print(prefix);
+            writer.println(String.format(Locale.US, "  %-18s %d", counter, getCount(counter)));
+        }
+        writer.print(prefix);
+        writer.println(String.format(Locale.US, "  parse per feature %.1fus",
+                getParseNanosPerFeature() / (double) TimeUnit.MICROSECONDS.toNanos(1)));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.quakereport;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the primary locations of earthquakes (i.e. "Foo, Region" of
+ * "12 km SSW of Foo, Region"), for search as you type. Each distinct location is split into
+ * normalized words once, the first time it is added; every word maps to the locations holding
+ * it, and every location to its entries. Adding an entry is a single lookup, and a search only
+ * walks the words starting with what was typed, kept sorted so they form a range.
+ *
+ * Entries are numbered in the order they are added, which callers map back to their own
+ * positions (i.e. {@link EarthquakeStore} positions).
+ */
+public final class EarthquakePlaceIndex {
+
+    /** Code of each distinct location */
+    private final Map<String, Integer> placeCodes = new HashMap<>();
+
+    /** Entries of each location, by code */
+    private final List<IntList> placeEntries = new ArrayList<>();
+
+    /** Codes of the locations holding each word, words in order so a prefix is a range */
+    private final TreeMap<String, IntList> wordPlaces = new TreeMap<>();
+
+    private int size;
+
+    /**
+     * Return the number of entries in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add the primary location of an earthquake to the index and return its entry number.
+     */
+    public int add(String primaryLocation) {
+        Integer code = placeCodes.get(primaryLocation);
+        if (code == null) {
+            code = placeEntries.size();
+            placeCodes.put(primaryLocation, code);
+            placeEntries.add(new IntList());
+            for (String word : splitWords(primaryLocation)) {
+                IntList places = wordPlaces.get(word);
+                if (places == null) {
+                    places = new IntList();
+                    wordPlaces.put(word, places);
+                }
+                // A location repeating a word is only listed once for it
+                if (places.size == 0 || places.values[places.size - 1] != code) {
+                    places.add(code);
+                }
+            }
+        }
+        placeEntries.get(code).add(size);
+        return size++;
+    }
+
+    /**
+     * Return the entries whose location has, for every word of {@code query}, a word starting
+     * with it, so "new zea" finds "Kermadec Islands, New Zealand". Case and accents are ignored.
+     * A query without any word matches every entry.
+     */
+    public BitSet search(String query) {
+        BitSet entries = new BitSet(size);
+        List<String> words = splitWords(query);
+        if (words.isEmpty()) {
+            entries.set(0, size);
+            return entries;
+        }
+
+        // Locations first: there are far fewer of them than entries
+        BitSet places = null;
+        for (String word : words) {
+            BitSet wordMatches = new BitSet(placeEntries.size());
+            SortedMap<String, IntList> range = wordPlaces.subMap(word, word + Character.MAX_VALUE);
+            for (IntList codes : range.values()) {
+                for (int i = 0; i < codes.size; i++) {
+                    wordMatches.set(codes.values[i]);
+                }
+            }
+            if (places == null) {
+                places = wordMatches;
+            } else {
+                places.and(wordMatches);
+            }
+            if (places.isEmpty()) {
+                return entries;
+            }
+        }
+
+        for (int code = places.nextSetBit(0); code >= 0; code = places.nextSetBit(code + 1)) {
+            IntList placeCodeEntries = placeEntries.get(code);
+            for (int i = 0; i < placeCodeEntries.size; i++) {
+                entries.set(placeCodeEntries.values[i]);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Return the words of {@code text} in lower case and without accents, split at anything
+     * that isn't a letter or a digit.
+     */
+    static List<String> splitWords(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                // The accent of the letter before it
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Growable array of ints, without boxing.
+     */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Answers {@link EarthquakeFilter}s from the earthquakes held in an {@link EarthquakeStore}
+ * without going back to the network. Positions are kept in one bucket per whole magnitude,
+ * each sorted newest first, so a filter only looks at the buckets of its magnitude band and
+ * binary searches its time window in them.
+ *
+ * The engine also knows which part of the USGS catalog the store covers, so that
+ * {@link #findGaps} can tell what still has to be fetched for a filter. Coverage is kept per
+ * magnitude: a steps of "every earthquake of at least M since T", where larger magnitudes
+ * can reach further back (i.e. M6+ for the last 30 days and M7+ for the last year).
+ *
+ * It also keeps the newest "updated" time of the responses of the base query the store was
+ * loaded from, which a delta sync asks for the changes after (see {@link #getSyncedUpdate()}).
+ */
+public final class EarthquakeQueryEngine {
+
+    /** Buckets 0 to 9 hold magnitudes [n, n+1), the last one 10 and over (and negatives go to 0) */
+    private static final int BUCKETS = 11;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final EarthquakeStore store;
+
+    private final int[][] buckets = new int[BUCKETS][];
+    private final int[] bucketSizes = new int[BUCKETS];
+
+    /** False when a bucket got an earthquake older than its last one and has to be sorted again */
+    private final boolean[] bucketSorted = new boolean[BUCKETS];
+
+    /** Number of store positions already in the buckets */
+    private int indexed;
+
+    /**
+     * The store holds every earthquake of at least coveredMagnitudes[i] since coveredSinces[i],
+     * up to now. Magnitudes go up and times go back, so each step reaches further than the one
+     * before it.
+     */
+    private double[] coveredMagnitudes = new double[0];
+    private long[] coveredSinces = new long[0];
+
+    /** Newest "updated" time of the base query responses, 0 if none */
+    private long syncedUpdate;
+
+    public EarthquakeQueryEngine(EarthquakeStore store) {
+        this.store = store;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new int[INITIAL_CAPACITY];
+            bucketSorted[i] = true;
+        }
+    }
+
+    /**
+     * Record that the store holds every earthquake of at least {@code minMagnitude} that
+     * happened since {@code since} (in milliseconds), and nothing else: what it covered
+     * before is forgotten.
+     */
+    public void setCoverage(long since, double minMagnitude) {
+        clearCoverage();
+        addCoverage(since, minMagnitude);
+    }
+
+    /**
+     * Record that the store now also holds every earthquake of at least {@code minMagnitude}
+     * that happened since {@code since} (in milliseconds).
+     */
+    public void addCoverage(long since, double minMagnitude) {
+        List<Double> magnitudes = new ArrayList<>();
+        List<Long> sinces = new ArrayList<>();
+        boolean added = false;
+        for (int i = 0; i <= coveredMagnitudes.length; i++) {
+            double magnitude = i < coveredMagnitudes.length ? coveredMagnitudes[i] : Double.MAX_VALUE;
+            if (!added && minMagnitude <= magnitude) {
+                addStep(magnitudes, sinces, minMagnitude, since);
+                added = true;
+            }
+            if (i < coveredMagnitudes.length) {
+                addStep(magnitudes, sinces, magnitude, coveredSinces[i]);
+            }
+        }
+
+        coveredMagnitudes = new double[magnitudes.size()];
+        coveredSinces = new long[sinces.size()];
+        for (int i = 0; i < coveredMagnitudes.length; i++) {
+            coveredMagnitudes[i] = magnitudes.get(i);
+            coveredSinces[i] = sinces.get(i);
+        }
+    }
+
+    /**
+     * Append a step of coverage, in order of magnitude, dropping the steps it makes redundant.
+     */
+    private static void addStep(List<Double> magnitudes, List<Long> sinces, double magnitude, long since) {
+        int last = magnitudes.size() - 1;
+        // A larger magnitude that doesn't reach further back adds nothing
+        if (last >= 0 && sinces.get(last) <= since) {
+            return;
+        }
+        // The same magnitude reaching further back replaces the step
+        if (last >= 0 && magnitudes.get(last) == magnitude) {
+            sinces.set(last, since);
+            return;
+        }
+        magnitudes.add(magnitude);
+        sinces.add(since);
+    }
+
+    /**
+     * Forget what the store covers, and how recent it is, i.e. when its earthquakes are
+     * replaced by a new first page.
+     */
+    public void clearCoverage() {
+        coveredMagnitudes = new double[0];
+        coveredSinces = new long[0];
+        syncedUpdate = 0;
+    }
+
+    /**
+     * Record a response of the base query merged into the store (a page or a delta sync),
+     * moving {@link #getSyncedUpdate()} up to its newest "updated" time. Earthquakes merged in
+     * from elsewhere, i.e. the realtime feed or a gap, must not be recorded: being newer than
+     * the rest, they would hide the revisions and deletions of the others from the next sync.
+     */
+    public void addSyncedResponse(List<EarthquakeData> response) {
+        syncedUpdate = Math.max(syncedUpdate, QueryUtils.newestUpdate(response));
+    }
+
+    /**
+     * Return the newest "updated" time of the base query responses the store holds, the time
+     * a delta sync asks for changes after, or 0 if there were none.
+     */
+    public long getSyncedUpdate() {
+        return syncedUpdate;
+    }
+
+    /**
+     * Restore the time returned by {@link #getSyncedUpdate()}, i.e. from a snapshot.
+     */
+    public void setSyncedUpdate(long syncedUpdate) {
+        this.syncedUpdate = syncedUpdate;
+    }
+
+    /**
+     * Return the oldest time the store holds every earthquake of at least {@code magnitude}
+     * from, {@link Long#MAX_VALUE} if it doesn't hold all of them for any time.
+     */
+    public long getCoveredSince(double magnitude) {
+        long since = Long.MAX_VALUE;
+        for (int i = 0; i < coveredMagnitudes.length && coveredMagnitudes[i] <= magnitude; i++) {
+            since = coveredSinces[i];
+        }
+        return since;
+    }
+
+    /**
+     * Return the magnitudes of the steps of coverage, smallest first, for saving them.
+     */
+    public double[] getCoveredMagnitudes() {
+        return coveredMagnitudes.clone();
+    }
+
+    /**
+     * Return the times the steps of {@link #getCoveredMagnitudes()} reach back to.
+     */
+    public long[] getCoveredSinces() {
+        return coveredSinces.clone();
+    }
+
+    /**
+     * Forget every indexed position, to be called after the store was cleared. What the
+     * store covers (and how recent it is) is kept, as the earthquakes it is filled with again
+     * usually are the same.
+     */
+    public void reset() {
+        Arrays.fill(bucketSizes, 0);
+        Arrays.fill(bucketSorted, true);
+        indexed = 0;
+    }
+
+    /**
+     * Return the filters of the earthquakes {@code filter} needs that the store doesn't cover,
+     * to be fetched from USGS, one per magnitude band reaching back a different time. The list
+     * is empty if the filter can be answered locally.
+     */
+    public List<EarthquakeFilter> findGaps(EarthquakeFilter filter) {
+        List<EarthquakeFilter> gaps = new ArrayList<>();
+        double bandMin = filter.minMagnitude;
+        while (bandMin <= filter.maxMagnitude) {
+            // The band runs up to the next step of coverage, where it reaches further back
+            double bandMax = filter.maxMagnitude;
+            for (double magnitude : coveredMagnitudes) {
+                if (magnitude > bandMin) {
+                    bandMax = Math.min(bandMax, magnitude);
+                    break;
+                }
+            }
+
+            long since = getCoveredSince(bandMin);
+            if (filter.startTime < since) {
+                gaps.add(new EarthquakeFilter(bandMin, bandMax, filter.startTime, Math.min(filter.endTime, since),
+                        filter.order, filter.placeQuery));
+            }
+            if (bandMax == filter.maxMagnitude) {
+                break;
+            }
+            bandMin = bandMax;
+        }
+        return gaps;
+    }
+
+    /**
+     * Return the store positions of the earthquakes matching the filter, in the order it asks for.
+     */
+    public int[] query(EarthquakeFilter filter) {
+        update();
+
+        // Narrowed down to the positions whose place matches first, if there is a search
+        BitSet placeMatches = filter.placeQuery.isEmpty() ? null : store.getPlaceIndex().search(filter.placeQuery);
+
+        // and to the positions inside the region, if there is one
+        BitSet regionMatches = null;
+        if (filter.hasRegion()) {
+            regionMatches = new BitSet(store.size());
+            for (int position : store.getSpatialIndex().findInBox(filter.minLatitude, filter.maxLatitude,
+                    filter.minLongitude, filter.maxLongitude)) {
+                regionMatches.set(position);
+            }
+        }
+
+        int first = bucket(filter.minMagnitude);
+        int last = bucket(filter.maxMagnitude);
+        int[] result = new int[INITIAL_CAPACITY];
+        int count = 0;
+        for (int b = first; b <= last; b++) {
+            sortBucket(b);
+            int[] positions = buckets[b];
+            int size = bucketSizes[b];
+
+            // Newest first, so the window runs from the first earthquake not newer than its end
+            // to the last one not older than its start
+            for (int i = firstNotNewerThan(positions, size, filter.endTime); i < size; i++) {
+                int position = positions[i];
+                long time = store.getTime(position);
+                if (time < filter.startTime) {
+                    break;
+                }
+                if (placeMatches != null && !placeMatches.get(position)) {
+                    continue;
+                }
+                if (regionMatches != null && !regionMatches.get(position)) {
+                    continue;
+                }
+                if (filter.matches(store.getMagnitude(position), time)) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = position;
+                }
+            }
+        }
+
+        result = Arrays.copyOf(result, count);
+        sort(result, filter.order);
+        return result;
+    }
+
+    /**
+     * Return the earthquakes matching the filter, in the order it asks for.
+     */
+    public List<EarthquakeData> queryEarthquakes(EarthquakeFilter filter) {
+        int[] positions = query(filter);
+        List<EarthquakeData> earthquakes = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            earthquakes.add(store.get(position));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Put the positions added to the store since the last call in their bucket.
+     */
+    private void update() {
+        for (; indexed < store.size(); indexed++) {
+            int b = bucket(store.getMagnitude(indexed));
+            int size = bucketSizes[b];
+            if (size == buckets[b].length) {
+                buckets[b] = Arrays.copyOf(buckets[b], size * 2);
+            }
+            if (size > 0 && store.getTime(indexed) > store.getTime(buckets[b][size - 1])) {
+                bucketSorted[b] = false;
+            }
+            buckets[b][size] = indexed;
+            bucketSizes[b] = size + 1;
+        }
+    }
+
+    private void sortBucket(int b) {
+        if (!bucketSorted[b]) {
+            sort(Arrays.copyOf(buckets[b], bucketSizes[b]), EarthquakeFilter.Order.NEWEST_FIRST, buckets[b]);
+            bucketSorted[b] = true;
+        }
+    }
+
+    /**
+     * Return the index of the first position (newest first) whose time is not after {@code time}.
+     */
+    private int firstNotNewerThan(int[] positions, int size, long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (store.getTime(positions[middle]) > time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void sort(int[] positions, EarthquakeFilter.Order order) {
+        sort(positions.clone(), order, positions);
+    }
+
+    /**
+     * Stable merge sort of store positions from {@code source} into {@code target},
+     * compared by the values of the store so no boxing is needed.
+     */
+    private void sort(int[] source, EarthquakeFilter.Order order, int[] target) {
+        int length = source.length;
+        int[] from = source;
+        int[] to = new int[length];
+        for (int width = 1; width < length; width *= 2) {
+            for (int low = 0; low < length; low += 2 * width) {
+                int middle = Math.min(low + width, length);
+                int high = Math.min(low + 2 * width, length);
+                int i = low;
+                int j = middle;
+                for (int k = low; k < high; k++) {
+                    if (i < middle && (j >= high || compare(from[i], from[j], order) <= 0)) {
+                        to[k] = from[i++];
+                    } else {
+                        to[k] = from[j++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        System.arraycopy(from, 0, target, 0, length);
+    }
+
+    private int compare(int first, int second, EarthquakeFilter.Order order) {
+        switch (order) {
+            case OLDEST_FIRST:
+                return Long.compare(store.getTime(first), store.getTime(second));
+            case LARGEST_FIRST:
+                int byMagnitude = Double.compare(store.getMagnitude(second), store.getMagnitude(first));
+                return byMagnitude != 0 ? byMagnitude : Long.compare(store.getTime(second), store.getTime(first));
+            case NEWEST_FIRST:
+            default:
+                return Long.compare(store.getTime(second), store.getTime(first));
+        }
+    }
+
+    private static int bucket(double magnitude) {
+        if (magnitude < 0) {
+            return 0;
+        }
+        if (magnitude >= BUCKETS - 1) {
+            return BUCKETS - 1;
+        }
+        return (int) magnitude;
+    }
+}
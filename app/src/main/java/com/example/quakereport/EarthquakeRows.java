@@ -0,0 +1,139 @@
+package com.example.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Display-ready rows of the list: the magnitude, date and time text and the magnitude circle
+ * color of every earthquake of an {@link EarthquakeStore}, formatted ahead of time on a
+ * background thread so that binding a row only assigns them. The location needs no work,
+ * it was split into its offset and primary location when parsed.
+ *
+ * Large lists are formatted in chunks on every core, each with its own {@link EarthquakeFormatter}.
+ */
+public final class EarthquakeRows {
+
+    /** Below this many rows, handing the formatting to other threads costs more than it saves */
+    private static final int PARALLEL_THRESHOLD = 2000;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Threads large lists are formatted on, shared by every adapter */
+    private static final ExecutorService FORMAT_EXECUTOR = Executors.newFixedThreadPool(THREADS);
+
+    private final EarthquakeStore earthquakes;
+    private final int[] magnitudeColors;
+
+    private final String[] magnitudes;
+    private final String[] dates;
+    private final String[] times;
+    private final int[] colors;
+
+    private EarthquakeRows(EarthquakeStore earthquakes, int[] magnitudeColors) {
+        this.earthquakes = earthquakes;
+        this.magnitudeColors = magnitudeColors;
+        int size = earthquakes.size();
+        magnitudes = new String[size];
+        dates = new String[size];
+        times = new String[size];
+        colors = new int[size];
+    }
+
+    /**
+     * Format every earthquake of the store, on the calling thread and the format threads.
+     * Not to be called on the main thread.
+     *
+     * @param magnitudeColors magnitude circle colors, indexed by the integer part of the magnitude
+     */
+    public static EarthquakeRows format(EarthquakeStore earthquakes, int[] magnitudeColors) {
+        final EarthquakeRows rows = new EarthquakeRows(earthquakes, magnitudeColors);
+        int size = earthquakes.size();
+        if (size < PARALLEL_THRESHOLD || THREADS == 1) {
+            rows.format(0, size);
+            return rows;
+        }
+
+        int chunkSize = (size + THREADS - 1) / THREADS;
+        List<Callable<Void>> chunks = new ArrayList<>(THREADS);
+        for (int start = 0; start < size; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    rows.format(chunkStart, chunkEnd);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> chunk : FORMAT_EXECUTOR.invokeAll(chunks)) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            // Finish on this thread rather than hand out rows that are partly formatted
+            Thread.currentThread().interrupt();
+            rows.format(0, size);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return rows;
+    }
+
+    /**
+     * Return the earthquakes the rows were formatted from.
+     */
+    public EarthquakeStore getEarthquakes() {
+        return earthquakes;
+    }
+
+    public int size() {
+        return magnitudes.length;
+    }
+
+    public String getMagnitude(int position) {
+        return magnitudes[position];
+    }
+
+    public String getDate(int position) {
+        return dates[position];
+    }
+
+    public String getTime(int position) {
+        return times[position];
+    }
+
+    public int getColor(int position) {
+        return colors[position];
+    }
+
+    private void format(int start, int end) {
+        EarthquakeFormatter formatter = new EarthquakeFormatter();
+        for (int i = start; i < end; i++) {
+            double magnitude = earthquakes.getMagnitude(i);
+            long time = earthquakes.getTime(i);
+            magnitudes[i] = formatter.formatMagnitude(magnitude);
+            dates[i] = formatter.formatDate(time);
+            times[i] = formatter.formatTime(time);
+            colors[i] = getMagnitudeColor(magnitude);
+        }
+    }
+
+    /**
+     * Return the color for magnitude according to tha magnitude value in integer forma.
+     */
+    private int getMagnitudeColor(double magnitude) {
+        int index = (int) magnitude;
+        if (index < 0) {
+            index = 0;
+        } else if (index >= magnitudeColors.length) {
+            index = magnitudeColors.length - 1;
+        }
+        return magnitudeColors[index];
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What {@link EarthquakeViewModel} had loaded and where the list was scrolled to, saved after
+ * every load so a restarted app shows it again right away instead of fetching and parsing the
+ * pages again. Kept in a compact binary file read in one go:
+ * <pre>
+ * header:     magic (int), version (int), time saved (long)
+ * state:      filter (min and max magnitude, start and end time, order, place query,
+ *             min and max latitude, min and max longitude),
+ *             window (long), realtime (boolean), next offset (int), more pages (boolean),
+ *             steps of coverage (count (int), then min magnitude (double) and since (long)
+ *             of each), synced update (long), scroll position (int)
+ * earthquakes: count (int), then for each: time, updated (long), magnitude, latitude,
+ *             longitude, depth (double), id, place and url (modified UTF-8). The url is left
+ *             empty when it is the USGS event page of the id.
+ * </pre>
+ */
+public final class EarthquakeSnapshot {
+
+    /** "QKSN" */
+    private static final int MAGIC = 0x514b534e;
+    private static final int VERSION = 4;
+
+    /** Url of every USGS event page, followed by the event id */
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public final long savedAt;
+    public final EarthquakeFilter filter;
+    public final long windowMillis;
+    public final boolean isRealtime;
+    public final int nextOffset;
+    public final boolean hasMorePages;
+
+    /** Steps of coverage of {@link EarthquakeQueryEngine}, smallest magnitude first */
+    public final double[] coveredMagnitudes;
+    public final long[] coveredSinces;
+
+    /** Newest "updated" time of the base query responses, see {@link EarthquakeQueryEngine#getSyncedUpdate()} */
+    public final long syncedUpdate;
+
+    /** First visible position of the list, -1 if unknown */
+    public final int scrollPosition;
+
+    public final List<EarthquakeData> earthquakes;
+
+    public EarthquakeSnapshot(long savedAt, EarthquakeFilter filter, long windowMillis, boolean isRealtime,
+                              int nextOffset, boolean hasMorePages, double[] coveredMagnitudes, long[] coveredSinces,
+                              long syncedUpdate, int scrollPosition, List<EarthquakeData> earthquakes) {
+        this.savedAt = savedAt;
+        this.filter = filter;
+        this.windowMillis = windowMillis;
+        this.isRealtime = isRealtime;
+        this.nextOffset = nextOffset;
+        this.hasMorePages = hasMorePages;
+        this.coveredMagnitudes = coveredMagnitudes;
+        this.coveredSinces = coveredSinces;
+        this.syncedUpdate = syncedUpdate;
+        this.scrollPosition = scrollPosition;
+        this.earthquakes = Collections.unmodifiableList(earthquakes);
+    }
+
+    /**
+     * Return the oldest time every earthquake of at least {@code magnitude} was loaded from,
+     * {@link Long#MAX_VALUE} if none.
+     */
+    public long getCoveredSince(double magnitude) {
+        long since = Long.MAX_VALUE;
+        for (int i = 0; i < coveredMagnitudes.length && coveredMagnitudes[i] <= magnitude; i++) {
+            since = coveredSinces[i];
+        }
+        return since;
+    }
+
+    /**
+     * Read the snapshot in {@code file}, or return null if there is none.
+     */
+    public static EarthquakeSnapshot read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        // Small enough to read whole, which beats buffering it through a stream
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream input = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int count = input.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new EOFException("Truncated earthquake snapshot " + file);
+                }
+                read += count;
+            }
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not an earthquake snapshot " + file);
+        }
+        long savedAt = input.readLong();
+
+        double minMagnitude = input.readDouble();
+        double maxMagnitude = input.readDouble();
+        long startTime = input.readLong();
+        long endTime = input.readLong();
+        int order = input.readByte();
+        String placeQuery = input.readUTF();
+        double minLatitude = input.readDouble();
+        double maxLatitude = input.readDouble();
+        double minLongitude = input.readDouble();
+        double maxLongitude = input.readDouble();
+        if (order < 0 || order >= EarthquakeFilter.Order.values().length) {
+            throw new IOException("Unknown order " + order + " in earthquake snapshot " + file);
+        }
+        EarthquakeFilter filter = new EarthquakeFilter(minMagnitude, maxMagnitude, startTime, endTime,
+                EarthquakeFilter.Order.values()[order], placeQuery, minLatitude, maxLatitude, minLongitude, maxLongitude);
+
+        long windowMillis = input.readLong();
+        boolean isRealtime = input.readBoolean();
+        int nextOffset = input.readInt();
+        boolean hasMorePages = input.readBoolean();
+        int steps = input.readInt();
+        if (steps < 0) {
+            throw new IOException("Corrupt earthquake snapshot " + file);
+        }
+        double[] coveredMagnitudes = new double[steps];
+        long[] coveredSinces = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            coveredMagnitudes[i] = input.readDouble();
+            coveredSinces[i] = input.readLong();
+        }
+        long syncedUpdate = input.readLong();
+        int scrollPosition = input.readInt();
+
+        int count = input.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt earthquake snapshot " + file);
+        }
+        List<EarthquakeData> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long time = input.readLong();
+            long updated = input.readLong();
+            double magnitude = input.readDouble();
+            double latitude = input.readDouble();
+            double longitude = input.readDouble();
+            double depth = input.readDouble();
+            String id = input.readUTF();
+            String place = input.readUTF();
+            String url = input.readUTF();
+            earthquakes.add(new EarthquakeData(id, magnitude, place, time, updated,
+                    url.isEmpty() ? EVENT_PAGE_URL + id : url, latitude, longitude, depth));
+        }
+
+        return new EarthquakeSnapshot(savedAt, filter, windowMillis, isRealtime, nextOffset, hasMorePages,
+                coveredMagnitudes, coveredSinces, syncedUpdate, scrollPosition, earthquakes);
+    }
+
+    /**
+     * Write the snapshot to {@code file}. It is written next to it first and then moved in
+     * place, so a process killed while writing leaves the previous snapshot as it was.
+     */
+    public void write(File file) throws IOException {
+        File partFile = new File(file.getPath() + ".part");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(savedAt);
+
+            output.writeDouble(filter.minMagnitude);
+            output.writeDouble(filter.maxMagnitude);
+            output.writeLong(filter.startTime);
+            output.writeLong(filter.endTime);
+            output.writeByte(filter.order.ordinal());
+            output.writeUTF(filter.placeQuery);
+            output.writeDouble(filter.minLatitude);
+            output.writeDouble(filter.maxLatitude);
+            output.writeDouble(filter.minLongitude);
+            output.writeDouble(filter.maxLongitude);
+
+            output.writeLong(windowMillis);
+            output.writeBoolean(isRealtime);
+            output.writeInt(nextOffset);
+            output.writeBoolean(hasMorePages);
+            output.writeInt(coveredMagnitudes.length);
+            for (int i = 0; i < coveredMagnitudes.length; i++) {
+                output.writeDouble(coveredMagnitudes[i]);
+                output.writeLong(coveredSinces[i]);
+            }
+            output.writeLong(syncedUpdate);
+            output.writeInt(scrollPosition);
+
+            output.writeInt(earthquakes.size());
+            for (int i = 0; i < earthquakes.size(); i++) {
+                EarthquakeData earthquake = earthquakes.get(i);
+                String id = earthquake.getId();
+                String url = earthquake.getUrl();
+                output.writeLong(earthquake.getTime());
+                output.writeLong(earthquake.getUpdated());
+                output.writeDouble(earthquake.getMagnitude());
+                output.writeDouble(earthquake.getLatitude());
+                output.writeDouble(earthquake.getLongitude());
+                output.writeDouble(earthquake.getDepth());
+                output.writeUTF(id);
+                output.writeUTF(earthquake.getPlace());
+                output.writeUTF(url.equals(EVENT_PAGE_URL + id) ? "" : url);
+            }
+        } catch (IOException e) {
+            partFile.delete();
+            throw e;
+        }
+        if (!partFile.renameTo(file)) {
+            partFile.delete();
+            throw new IOException("Could not move the snapshot to " + file);
+        }
+    }
+}
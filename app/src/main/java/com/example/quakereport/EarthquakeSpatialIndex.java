@@ -0,0 +1,248 @@
+package com.example.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Grid index of epicenters for bounding box, radius and nearest neighbour queries.
+ * The globe is cut into {@link #CELL_DEGREES} degree cells, each holding a linked list of its
+ * entries in primitive arrays, so adding an entry is O(1) and a query only looks at the cells
+ * it overlaps. Entries are numbered in the order they are added, which callers map back to
+ * their own positions (i.e. {@link EarthquakeStore} positions).
+ */
+public final class EarthquakeSpatialIndex {
+
+    /** Mean radius of the Earth, in kilometers */
+    public static final double EARTH_RADIUS_KM = 6371.0;
+
+    /** Half the circumference of the Earth: no two points are further apart */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    /** Kilometers in one degree of latitude */
+    private static final double KM_PER_DEGREE = MAX_DISTANCE_KM / 180;
+
+    /** First radius tried by {@link #findNearest}, doubled until enough entries are found */
+    private static final double NEAREST_START_RADIUS_KM = 50;
+
+    private static final int CELL_DEGREES = 1;
+    private static final int ROWS = 180 / CELL_DEGREES;
+    private static final int COLUMNS = 360 / CELL_DEGREES;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_ENTRY = -1;
+
+    /** First entry of each cell, or NO_ENTRY */
+    private final int[] cellHeads = new int[ROWS * COLUMNS];
+
+    /** Next entry in the same cell, or NO_ENTRY */
+    private int[] next = new int[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private int size;
+
+    public EarthquakeSpatialIndex() {
+        Arrays.fill(cellHeads, NO_ENTRY);
+    }
+
+    /**
+     * Return the number of entries in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add an epicenter to the index and return its entry number.
+     */
+    public int add(double latitude, double longitude) {
+        if (size == next.length) {
+            int newCapacity = size * 2;
+            next = Arrays.copyOf(next, newCapacity);
+            latitudes = Arrays.copyOf(latitudes, newCapacity);
+            longitudes = Arrays.copyOf(longitudes, newCapacity);
+        }
+        longitude = normalizeLongitude(longitude);
+        int cell = row(latitude) * COLUMNS + column(longitude);
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        next[size] = cellHeads[cell];
+        cellHeads[cell] = size;
+        return size++;
+    }
+
+    /**
+     * Return the entries inside the box, edges included. A box whose western edge is east of its
+     * eastern edge crosses the antimeridian, and one spanning 360 degrees or more covers every
+     * longitude.
+     */
+    public int[] findInBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        IntBuffer result = new IntBuffer();
+        boolean allLongitudes = maxLongitude - minLongitude >= 360;
+        // An eastern edge of 180 becomes -180, so the box wraps just far enough to include it
+        minLongitude = normalizeLongitude(minLongitude);
+        maxLongitude = normalizeLongitude(maxLongitude);
+        boolean wraps = minLongitude > maxLongitude;
+
+        int firstColumn = allLongitudes ? 0 : column(minLongitude);
+        int columnCount = allLongitudes ? COLUMNS : columnCount(minLongitude, maxLongitude);
+        for (int row = row(minLatitude); row <= row(maxLatitude); row++) {
+            for (int i = 0; i < columnCount; i++) {
+                int column = (firstColumn + i) % COLUMNS;
+                for (int entry = cellHeads[row * COLUMNS + column]; entry != NO_ENTRY; entry = next[entry]) {
+                    double latitude = latitudes[entry];
+                    double longitude = longitudes[entry];
+                    boolean inLongitude = allLongitudes || (wraps
+                            ? longitude >= minLongitude || longitude <= maxLongitude
+                            : longitude >= minLongitude && longitude <= maxLongitude);
+                    if (inLongitude && latitude >= minLatitude && latitude <= maxLatitude) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Return the entries within {@code radiusKm} kilometers of the point.
+     */
+    public int[] findWithinRadius(double latitude, double longitude, double radiusKm) {
+        IntBuffer result = new IntBuffer();
+        collectWithinRadius(latitude, longitude, radiusKm, result);
+        return result.toArray();
+    }
+
+    /**
+     * Return the {@code k} entries closest to the point, nearest first.
+     */
+    public int[] findNearest(double latitude, double longitude, int k) {
+        if (k <= 0 || size == 0) {
+            return new int[0];
+        }
+
+        // Everything within a radius is found, so once it holds k entries the k nearest are among them
+        IntBuffer candidates = new IntBuffer();
+        double radiusKm = NEAREST_START_RADIUS_KM;
+        while (true) {
+            candidates.clear();
+            collectWithinRadius(latitude, longitude, radiusKm, candidates);
+            if (candidates.size >= k || radiusKm >= MAX_DISTANCE_KM) {
+                break;
+            }
+            radiusKm *= 2;
+        }
+
+        // Sort the candidates by distance, packing distance and entry into one long keeps it allocation light
+        int count = candidates.size;
+        long[] keyed = new long[count];
+        for (int i = 0; i < count; i++) {
+            int entry = candidates.values[i];
+            float distance = (float) distanceKm(latitude, longitude, latitudes[entry], longitudes[entry]);
+            keyed[i] = ((long) Float.floatToIntBits(distance) << 32) | entry;
+        }
+        Arrays.sort(keyed);
+
+        int[] nearest = new int[Math.min(k, count)];
+        for (int i = 0; i < nearest.length; i++) {
+            nearest[i] = (int) keyed[i];
+        }
+        return nearest;
+    }
+
+    /**
+     * Return the great-circle distance between two points, in kilometers.
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void collectWithinRadius(double latitude, double longitude, double radiusKm, IntBuffer result) {
+        longitude = normalizeLongitude(longitude);
+        double latitudeDelta = radiusKm / KM_PER_DEGREE;
+        double minLatitude = Math.max(-90, latitude - latitudeDelta);
+        double maxLatitude = Math.min(90, latitude + latitudeDelta);
+
+        // A degree of longitude shrinks towards the poles, take the widest span the circle reaches
+        double widestLatitude = Math.max(Math.abs(minLatitude), Math.abs(maxLatitude));
+        double cosine = Math.cos(Math.toRadians(widestLatitude));
+        boolean allLongitudes = maxLatitude >= 90 || minLatitude <= -90
+                || cosine <= 0 || radiusKm / (KM_PER_DEGREE * cosine) >= 180;
+        double longitudeDelta = allLongitudes ? 180 : radiusKm / (KM_PER_DEGREE * cosine);
+
+        double minLongitude = normalizeLongitude(longitude - longitudeDelta);
+        double maxLongitude = normalizeLongitude(longitude + longitudeDelta);
+        int firstColumn = allLongitudes ? 0 : column(minLongitude);
+        int columnCount = allLongitudes ? COLUMNS : columnCount(minLongitude, maxLongitude);
+        for (int row = row(minLatitude); row <= row(maxLatitude); row++) {
+            for (int i = 0; i < columnCount; i++) {
+                int column = (firstColumn + i) % COLUMNS;
+                for (int entry = cellHeads[row * COLUMNS + column]; entry != NO_ENTRY; entry = next[entry]) {
+                    if (distanceKm(latitude, longitude, latitudes[entry], longitudes[entry]) <= radiusKm) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int row(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    private static int column(double longitude) {
+        int column = (int) Math.floor((longitude + 180) / CELL_DEGREES);
+        return Math.max(0, Math.min(COLUMNS - 1, column));
+    }
+
+    /**
+     * Return the number of columns from the one of {@code minLongitude} east to the one of
+     * {@code maxLongitude}. Both normalized, a box wrapping back into its first column gets
+     * every column.
+     */
+    private static int columnCount(double minLongitude, double maxLongitude) {
+        int count = column(maxLongitude) - column(minLongitude) + 1;
+        return minLongitude > maxLongitude ? Math.min(COLUMNS, count + COLUMNS) : count;
+    }
+
+    /**
+     * Return the longitude brought into [-180, 180).
+     */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180 && longitude < 180) {
+            return longitude;
+        }
+        double normalized = (longitude + 180) % 360;
+        if (normalized < 0) {
+            normalized += 360;
+        }
+        return normalized - 180;
+    }
+
+    /**
+     * Growable list of entries collected by a query.
+     */
+    private static final class IntBuffer {
+        int[] values = new int[INITIAL_CAPACITY];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column oriented, append only store of earthquakes.
+ * Magnitudes and times live in primitive arrays, places are dictionary encoded (already split into
+ * their offset and primary location, which repeat a lot across events) and urls are kept
+ * as a dictionary encoded prefix whenever they simply end with the event id (which is the case
+ * for every USGS event page), so a large catalog costs little more than its raw values.
+ */
+public final class EarthquakeStore implements EarthquakeCatalog {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private double[] magnitudes = new double[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] updated = new long[INITIAL_CAPACITY];
+    private int[] offsetCodes = new int[INITIAL_CAPACITY];
+    private int[] primaryCodes = new int[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private double[] depths = new double[INITIAL_CAPACITY];
+
+    /** Dictionary code of the url, negative (~code) when the url is the prefix followed by the event id */
+    private int[] urlCodes = new int[INITIAL_CAPACITY];
+
+    private final StringDictionary places = new StringDictionary();
+    private final StringDictionary urls = new StringDictionary();
+
+    /** Spatial index of the epicenters, created on first use and kept up to date as earthquakes are added */
+    private EarthquakeSpatialIndex spatialIndex;
+
+    /** Search index of the primary locations, created on first use like the spatial index */
+    private EarthquakePlaceIndex placeIndex;
+
+    public EarthquakeStore() {
+    }
+
+    /**
+     * Create a store holding a copy of the earthquakes of {@code other}, to be appended to.
+     */
+    public EarthquakeStore(EarthquakeStore other) {
+        int capacity = Math.max(INITIAL_CAPACITY, other.size);
+        size = other.size;
+        ids = Arrays.copyOf(other.ids, capacity);
+        magnitudes = Arrays.copyOf(other.magnitudes, capacity);
+        times = Arrays.copyOf(other.times, capacity);
+        updated = Arrays.copyOf(other.updated, capacity);
+        offsetCodes = Arrays.copyOf(other.offsetCodes, capacity);
+        primaryCodes = Arrays.copyOf(other.primaryCodes, capacity);
+        latitudes = Arrays.copyOf(other.latitudes, capacity);
+        longitudes = Arrays.copyOf(other.longitudes, capacity);
+        depths = Arrays.copyOf(other.depths, capacity);
+        urlCodes = Arrays.copyOf(other.urlCodes, capacity);
+        places.addAll(other.places);
+        urls.addAll(other.urls);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String getId(int position) {
+        checkPosition(position);
+        return ids[position];
+    }
+
+    @Override
+    public double getMagnitude(int position) {
+        checkPosition(position);
+        return magnitudes[position];
+    }
+
+    @Override
+    public String getPlace(int position) {
+        String offset = getLocationOffset(position);
+        String primary = getPrimaryLocation(position);
+        return offset.isEmpty() ? primary : offset + " " + primary;
+    }
+
+    @Override
+    public String getLocationOffset(int position) {
+        checkPosition(position);
+        return places.get(offsetCodes[position]);
+    }
+
+    @Override
+    public String getPrimaryLocation(int position) {
+        checkPosition(position);
+        return places.get(primaryCodes[position]);
+    }
+
+    @Override
+    public long getTime(int position) {
+        checkPosition(position);
+        return times[position];
+    }
+
+    @Override
+    public long getUpdated(int position) {
+        checkPosition(position);
+        return updated[position];
+    }
+
+    @Override
+    public String getUrl(int position) {
+        checkPosition(position);
+        int code = urlCodes[position];
+        if (code < 0) {
+            return urls.get(~code) + ids[position];
+        }
+        return urls.get(code);
+    }
+
+    @Override
+    public double getLatitude(int position) {
+        checkPosition(position);
+        return latitudes[position];
+    }
+
+    @Override
+    public double getLongitude(int position) {
+        checkPosition(position);
+        return longitudes[position];
+    }
+
+    @Override
+    public double getDepth(int position) {
+        checkPosition(position);
+        return depths[position];
+    }
+
+    @Override
+    public EarthquakeData get(int position) {
+        return new EarthquakeData(getId(position), getMagnitude(position), getPlace(position),
+                getTime(position), getUpdated(position), getUrl(position),
+                getLatitude(position), getLongitude(position), getDepth(position));
+    }
+
+    /**
+     * Return the spatial index of the earthquakes of the store, whose entries are store positions.
+     * Earthquakes added since the last call are indexed first, so the cost of building the
+     * index is spread over the queries instead of paid again for every one.
+     */
+    public EarthquakeSpatialIndex getSpatialIndex() {
+        if (spatialIndex == null) {
+            spatialIndex = new EarthquakeSpatialIndex();
+        }
+        for (int i = spatialIndex.size(); i < size; i++) {
+            spatialIndex.add(latitudes[i], longitudes[i]);
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Return the search index of the primary locations of the store, whose entries are store positions.
+     * Earthquakes added since the last call are indexed first, so a store that is never searched
+     * (i.e. the one behind the rows of the list) never pays for it.
+     */
+    public EarthquakePlaceIndex getPlaceIndex() {
+        if (placeIndex == null) {
+            placeIndex = new EarthquakePlaceIndex();
+        }
+        for (int i = placeIndex.size(); i < size; i++) {
+            placeIndex.add(places.get(primaryCodes[i]));
+        }
+        return placeIndex;
+    }
+
+    /**
+     * Append an earthquake at the end of the store.
+     */
+    public void add(EarthquakeData earthquake) {
+        ensureCapacity(size + 1);
+
+        String id = earthquake.getId();
+        String url = earthquake.getUrl();
+        ids[size] = id;
+        magnitudes[size] = earthquake.getMagnitude();
+        times[size] = earthquake.getTime();
+        updated[size] = earthquake.getUpdated();
+        offsetCodes[size] = places.encode(earthquake.getLocationOffset());
+        primaryCodes[size] = places.encode(earthquake.getPrimaryLocation());
+        latitudes[size] = earthquake.getLatitude();
+        longitudes[size] = earthquake.getLongitude();
+        depths[size] = earthquake.getDepth();
+        if (!id.isEmpty() && url.endsWith(id)) {
+            urlCodes[size] = ~urls.encode(url.substring(0, url.length() - id.length()));
+        } else {
+            urlCodes[size] = urls.encode(url);
+        }
+        size++;
+    }
+
+    public void addAll(List<EarthquakeData> earthquakes) {
+        ensureCapacity(size + earthquakes.size());
+        for (EarthquakeData earthquake : earthquakes) {
+            add(earthquake);
+        }
+    }
+
+    /**
+     * Remove every earthquake, keeping the arrays allocated for the next ones.
+     */
+    public void clear() {
+        Arrays.fill(ids, 0, size, null);
+        size = 0;
+        places.clear();
+        urls.clear();
+        spatialIndex = null;
+        placeIndex = null;
+    }
+
+    /**
+     * Return the earthquakes of the store as a new list of {@link EarthquakeData}.
+     */
+    public List<EarthquakeData> toList() {
+        List<EarthquakeData> earthquakes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            earthquakes.add(get(i));
+        }
+        return earthquakes;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        magnitudes = Arrays.copyOf(magnitudes, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        updated = Arrays.copyOf(updated, newCapacity);
+        offsetCodes = Arrays.copyOf(offsetCodes, newCapacity);
+        primaryCodes = Arrays.copyOf(primaryCodes, newCapacity);
+        latitudes = Arrays.copyOf(latitudes, newCapacity);
+        longitudes = Arrays.copyOf(longitudes, newCapacity);
+        depths = Arrays.copyOf(depths, newCapacity);
+        urlCodes = Arrays.copyOf(urlCodes, newCapacity);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+    }
+
+    /**
+     * Give each distinct string a dense integer code, so repeated strings are stored once.
+     */
+    private static final class StringDictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        String get(int code) {
+            return values.get(code);
+        }
+
+        void clear() {
+            codes.clear();
+            values.clear();
+        }
+
+        /** Copy the codes of {@code other}, only valid while this dictionary is empty */
+        void addAll(StringDictionary other) {
+            codes.putAll(other.codes);
+            values.addAll(other.values);
+        }
+    }
+}
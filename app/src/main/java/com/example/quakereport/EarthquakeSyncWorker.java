@@ -0,0 +1,123 @@
+package com.example.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the cached copy of a USGS query current in the background, so that opening the app
+ * shows fresh earthquakes from {@link EarthquakeCache} before any request is made.
+ * It runs as unique periodic work: scheduling it again while it is scheduled is coalesced
+ * into the existing work, and WorkManager batches it with other jobs to save radio wake-ups.
+ */
+public class EarthquakeSyncWorker extends Worker {
+
+    /** Name of the unique periodic work */
+    private static final String WORK_NAME = "earthquake_sync";
+
+    /** Key of the input holding the URL of the query to keep current */
+    private static final String KEY_URL = "url";
+
+    /** Delay before the first retry of a failed sync, doubled on every following one */
+    private static final long BACKOFF_DELAY_SECONDS = 30;
+
+    /** Failed runs in a row after which the sync waits for its next period instead */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /** Preferences remembering the settings the work was last scheduled with */
+    private static final String PREFERENCES_NAME = "earthquake_sync";
+    private static final String PREF_SCHEDULED_SETTINGS = "scheduled_settings";
+
+    private final CancellationSignal cancellationSignal = new CancellationSignal();
+
+    public EarthquakeSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Schedule the background sync of {@code requestUrl} with the settings of the app resources.
+     */
+    public static void schedule(Context context, String requestUrl) {
+        schedule(context, requestUrl,
+                context.getResources().getInteger(R.integer.syncIntervalMinutes),
+                context.getResources().getBoolean(R.bool.syncUnmeteredOnly),
+                context.getResources().getBoolean(R.bool.syncChargingOnly));
+    }
+
+    /**
+     * Schedule the background sync of {@code requestUrl} every {@code intervalMinutes}
+     * (at least 15). The sync only runs when the battery isn't low, and if asked to only on
+     * unmetered networks and while charging. A failed sync is retried with exponential backoff.
+     */
+    public static void schedule(Context context, String requestUrl, long intervalMinutes,
+                                boolean unmeteredOnly, boolean chargingOnly) {
+        long intervalMillis = Math.max(TimeUnit.MINUTES.toMillis(intervalMinutes),
+                PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS);
+
+        // Letting it run anywhere in the last third of the period gives WorkManager room to batch it
+        long flexMillis = Math.max(intervalMillis / 3, PeriodicWorkRequest.MIN_PERIODIC_FLEX_MILLIS);
+
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(unmeteredOnly ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .setRequiresCharging(chargingOnly)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(EarthquakeSyncWorker.class,
+                intervalMillis, TimeUnit.MILLISECONDS, flexMillis, TimeUnit.MILLISECONDS)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_DELAY_SECONDS, TimeUnit.SECONDS)
+                .setInputData(new Data.Builder().putString(KEY_URL, requestUrl).build())
+                .build();
+
+        // Replacing the work restarts its period, so only do it when the settings changed
+        String settings = requestUrl + '|' + intervalMillis + '|' + unmeteredOnly + '|' + chargingOnly;
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        ExistingPeriodicWorkPolicy policy = settings.equals(preferences.getString(PREF_SCHEDULED_SETTINGS, null))
+                ? ExistingPeriodicWorkPolicy.KEEP
+                : ExistingPeriodicWorkPolicy.REPLACE;
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(WORK_NAME, policy, request);
+        preferences.edit().putString(PREF_SCHEDULED_SETTINGS, settings).apply();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String requestUrl = getInputData().getString(KEY_URL);
+        if (requestUrl == null) {
+            return Result.failure();
+        }
+
+        try {
+            EarthquakeCache cache = EarthquakeCache.getInstance(getApplicationContext());
+            if (QueryUtils.refreshEarthquakeData(requestUrl, cache, cancellationSignal)) {
+                return Result.success();
+            }
+        } catch (OperationCanceledException e) {
+            // Stopped by WorkManager, i.e. the constraints no longer hold; the result is ignored
+            return Result.retry();
+        }
+
+        // After a few failures wait for the next period, the network is unlikely to come back sooner
+        return getRunAttemptCount() + 1 < MAX_ATTEMPTS ? Result.retry() : Result.failure();
+    }
+
+    @Override
+    public void onStopped() {
+        cancellationSignal.cancel();
+    }
+}
@@ -0,0 +1,818 @@
+package com.example.quakereport;
+
+import android.app.Application;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the earthquakes of {@link EarthquakeActivity} and keeps them across configuration
+ * changes, so a rotation shows what was loaded without asking USGS again.
+ *
+ * Every request (the cached first page, the pages, the refresh, the gaps of a filter) runs
+ * on a pool of its own, so they don't queue behind each other, and can be cancelled. Results
+ * are applied on the main thread as they come in: the cached first page first, then the
+ * network pages, gaps and realtime updates, each publishing the earthquakes matching the
+ * filter through {@link #getEarthquakes()}.
+ *
+ * After every load what is loaded is saved to an {@link EarthquakeSnapshot} in the background.
+ * A view model created after the process was killed reads it in the background together with
+ * the cached first page, shows it (with the first page merged in if the sync worker downloaded
+ * it since) and only syncs it with USGS instead of loading the pages again.
+ */
+public class EarthquakeViewModel extends AndroidViewModel {
+
+    private static final String LOG_TAG = EarthquakeViewModel.class.getSimpleName();
+
+    static final String USGS_REQUEST_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventtype=earthquake&orderby=time&minmag=6";
+
+    /** Number of earthquakes requested from USGS per page */
+    static final int PAGE_SIZE = 20;
+
+    /** Smallest magnitude {@link #USGS_REQUEST_URL} asks for */
+    static final double BASE_MIN_MAGNITUDE = 6;
+
+    static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /** USGS only returns the last 30 days when a query has no start time */
+    static final long DEFAULT_WINDOW_MILLIS = 30 * DAY_MILLIS;
+
+    /** Time between two polls of the realtime feed, which USGS regenerates every minute */
+    private static final long REALTIME_INTERVAL_MILLIS = 30 * 1000;
+
+    /** Largest random shift of a realtime poll, so devices don't poll in step */
+    private static final long REALTIME_JITTER_MILLIS = 5 * 1000;
+
+    /** How far back earthquakes that come in can still raise an alert */
+    private static final long ALERT_GRACE_MILLIS = 60 * 60 * 1000;
+
+    /** File of the snapshot, in the cache directory of the app */
+    private static final String SNAPSHOT_FILE_NAME = "earthquake_snapshot.bin";
+
+    /** How long a snapshot waits for more changes, so a burst of them is saved once */
+    private static final long SNAPSHOT_DELAY_MILLIS = 2 * 1000;
+
+    /** Time each magnitude band of the gaps of a filter is given to answer */
+    private static final long GAP_TIMEOUT_MILLIS = 30 * 1000;
+
+    /** Requests that can run at the same time: the cached first page, a page, a refresh and a gap */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /** Where loading the first page stands */
+    public enum Status {
+        LOADING,
+        LOADED,
+        FAILED
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final EarthquakeCache cache;
+
+    private final MutableLiveData<List<EarthquakeData>> earthquakes = new MutableLiveData<>();
+    private final MutableLiveData<Status> status = new MutableLiveData<>(Status.LOADING);
+
+    /** Every earthquake loaded so far, {@link #earthquakes} holds the ones matching {@link #filter} */
+    private final EarthquakeStore loadedEarthquakes = new EarthquakeStore();
+    private final EarthquakeQueryEngine queryEngine = new EarthquakeQueryEngine(loadedEarthquakes);
+
+    /** Statistics of {@link #loadedEarthquakes}, updated with every earthquake that comes in */
+    private final EarthquakeAggregates aggregates = new EarthquakeAggregates();
+    private EarthquakeFilter filter;
+
+    /** Length of the time window of {@link #filter}, which always runs up to now */
+    private long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+    /** 1-based offset of the next page to request */
+    private int nextOffset = 1;
+
+    /** Oldest time the pages of the base query loaded so far reach back to */
+    private long pagedSince = Long.MAX_VALUE;
+
+    /** False once USGS returned a short page, i.e. there is nothing more to fetch */
+    private boolean hasMorePages = true;
+
+    /** Requests in flight, at most one of each kind */
+    private Request pageRequest;
+    private Request syncRequest;
+    private Request gapRequest;
+    private Request cacheRequest;
+
+    /** Pushes new earthquakes in while realtime mode is on and the activity is visible */
+    private final RealtimeFeed realtimeFeed;
+    private boolean isRealtime;
+    private boolean isVisible;
+
+    /** Checks every earthquake that comes in against the alert rules */
+    private final EarthquakeAlertNotifier alertNotifier;
+    private final long alertsSince;
+    private EarthquakeAlertEngine alertEngine;
+
+    /** Writes the snapshots one after the other, off the main thread */
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+    private final File snapshotFile;
+
+    /** Writes the snapshot once {@link #SNAPSHOT_DELAY_MILLIS} went by without a change */
+    private final Runnable snapshotWriter = new Runnable() {
+        @Override
+        public void run() {
+            isSnapshotPending = false;
+            writeSnapshot();
+        }
+    };
+    private boolean isSnapshotPending;
+
+    /**
+     * Copy of {@link #loadedEarthquakes} written with the last snapshot, null once they changed.
+     * It is never modified, so a snapshot of the same earthquakes (i.e. after a scroll) reuses it.
+     */
+    private EarthquakeStore savedEarthquakes;
+
+    /** First visible position of the list as last told by the activity, -1 if unknown */
+    private int scrollPosition = -1;
+
+    /** Position of the restored snapshot, until the activity takes it */
+    private int restoredScrollPosition = -1;
+
+    public EarthquakeViewModel(@NonNull Application application) {
+        super(application);
+        cache = EarthquakeCache.getInstance(application);
+        snapshotFile = new File(application.getCacheDir(), SNAPSHOT_FILE_NAME);
+
+        // Start with what the base query returns: the last 30 days, newest first
+        filter = EarthquakeFilter.minMagnitude(BASE_MIN_MAGNITUDE)
+                .withTimeWindow(System.currentTimeMillis() - windowMillis, Long.MAX_VALUE);
+
+        // New earthquakes of the past hour go straight into the list, without reloading it
+        realtimeFeed = new RealtimeFeed(new SummaryFeedSource(SummaryFeedSource.M4_5_HOUR_URL),
+                REALTIME_INTERVAL_MILLIS, REALTIME_JITTER_MILLIS, new RealtimeFeed.Listener() {
+            @Override
+            public void onEarthquakes(List<EarthquakeData> earthquakes) {
+                addRecent(earthquakes);
+            }
+        });
+
+        // Alert on earthquakes of the past hour on, not on the whole backlog loaded at startup
+        alertNotifier = new EarthquakeAlertNotifier(application);
+        alertsSince = System.currentTimeMillis() - ALERT_GRACE_MILLIS;
+        setAlertRules(defaultAlertRules());
+
+        // Keep the cached first page current in the background, so it is fresh the next time the app opens
+        final String firstPageUrl = QueryUtils.buildPageUrl(USGS_REQUEST_URL, 1, PAGE_SIZE);
+        EarthquakeSyncWorker.schedule(application, firstPageUrl);
+
+        // Read what was loaded before the process was killed and the cached first page in the background
+        final EarthquakeSnapshot[] snapshot = new EarthquakeSnapshot[1];
+        final long[] cacheDownloadTime = new long[1];
+        cacheRequest = submit(new Task() {
+            @Override
+            public List<EarthquakeData> run(CancellationSignal signal) {
+                snapshot[0] = readSnapshot();
+                cacheDownloadTime[0] = cache.getDownloadTime(firstPageUrl);
+                return cache.getEarthquakes(firstPageUrl);
+            }
+        }, new ResultHandler() {
+            @Override
+            public void onResult(List<EarthquakeData> result) {
+                cacheRequest = null;
+                // The snapshot only needs to be brought up to date, unless a load started while it was read
+                if (snapshot[0] != null && loadedEarthquakes.isEmpty() && pageRequest == null) {
+                    restoreSnapshot(snapshot[0]);
+                    // The sync worker may have downloaded a fresher first page since it was saved
+                    if (result != null && cacheDownloadTime[0] > snapshot[0].savedAt) {
+                        addRecent(result);
+                    }
+                    refresh();
+                    return;
+                }
+
+                // Otherwise the cached first page is shown until the network delivers it
+                if (nextOffset == 1 && loadedEarthquakes.isEmpty() && result != null && !result.isEmpty()) {
+                    replaceLoaded(result);
+                    queryEngine.setCoverage(pageCoverage(result), BASE_MIN_MAGNITUDE);
+                    queryEngine.addSyncedResponse(result);
+                    publish();
+                }
+                if (pageRequest == null && nextOffset == 1) {
+                    loadPage(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the loaded earthquakes matching the filter, in the order it asks for.
+     */
+    public LiveData<List<EarthquakeData>> getEarthquakes() {
+        return earthquakes;
+    }
+
+    public LiveData<Status> getStatus() {
+        return status;
+    }
+
+    public EarthquakeFilter getFilter() {
+        return filter;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public boolean isRealtime() {
+        return isRealtime;
+    }
+
+    /**
+     * Return the statistics of every earthquake loaded, whatever the filter. Only to be read on the main thread.
+     */
+    public EarthquakeAggregates getAggregates() {
+        return aggregates;
+    }
+
+    public void setMinMagnitude(double minMagnitude) {
+        applyFilter(filter.withMinMagnitude(minMagnitude));
+    }
+
+    /**
+     * Only show the earthquakes of the last {@code windowMillis}.
+     */
+    public void setWindow(long windowMillis) {
+        this.windowMillis = windowMillis;
+        applyFilter(filter.withTimeWindow(System.currentTimeMillis() - windowMillis, Long.MAX_VALUE));
+    }
+
+    public void setOrder(EarthquakeFilter.Order order) {
+        applyFilter(filter.withOrder(order));
+    }
+
+    /**
+     * Only show the earthquakes whose place matches {@code placeQuery}, as it is typed.
+     * Answered from the loaded earthquakes only, as USGS can't search places.
+     */
+    public void setPlaceQuery(String placeQuery) {
+        filter = filter.withPlaceQuery(placeQuery);
+        publish();
+    }
+
+    /**
+     * Only show the earthquakes whose epicenter is in the box, see {@link EarthquakeFilter#minLatitude}.
+     * Answered from the loaded earthquakes only, like the place search.
+     */
+    public void setRegion(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        filter = filter.withRegion(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        publish();
+    }
+
+    public void setRealtime(boolean isRealtime) {
+        this.isRealtime = isRealtime;
+        updateRealtimeFeed();
+    }
+
+    /**
+     * Tell whether the earthquakes are on screen, realtime updates are only polled while they are.
+     */
+    public void setVisible(boolean isVisible) {
+        this.isVisible = isVisible;
+        updateRealtimeFeed();
+    }
+
+    /**
+     * Start loading the page after the last one loaded, unless one is already on its way.
+     */
+    public void loadNextPage() {
+        if (pageRequest != null || !hasMorePages) {
+            return;
+        }
+        loadPage(nextOffset);
+    }
+
+    /**
+     * Replace the alert rules, compiling them once for all the earthquakes to come.
+     */
+    public void setAlertRules(List<EarthquakeAlertRule> rules) {
+        alertEngine = new EarthquakeAlertEngine(rules, alertsSince, alertNotifier);
+    }
+
+    /**
+     * Remember the first visible position of the list, saving it with the loaded earthquakes.
+     */
+    public void setScrollPosition(int scrollPosition) {
+        this.scrollPosition = scrollPosition;
+        saveSnapshot();
+    }
+
+    /**
+     * Return the scroll position restored from the snapshot, once, or -1 if there is none.
+     */
+    public int takeRestoredScrollPosition() {
+        int position = restoredScrollPosition;
+        restoredScrollPosition = -1;
+        return position;
+    }
+
+    /**
+     * Bring the loaded earthquakes up to date, only fetching what changed since they were loaded.
+     */
+    public void refresh() {
+        // Nothing loaded yet, so there is nothing to sync against: start over instead
+        if (loadedEarthquakes.isEmpty()) {
+            nextOffset = 1;
+            hasMorePages = true;
+            status.setValue(Status.LOADING);
+            loadPage(1);
+            return;
+        }
+
+        if (syncRequest != null) {
+            syncRequest.cancel();
+        }
+        // Only the responses of the base query tell what the delta has to start from, the
+        // realtime feed and the gaps can have brought in newer earthquakes than the rest
+        final List<EarthquakeData> current = loadedEarthquakes.toList();
+        final long syncedUpdate = queryEngine.getSyncedUpdate();
+        final List<EarthquakeData> changes = new ArrayList<>();
+        syncRequest = submit(new Task() {
+            @Override
+            public List<EarthquakeData> run(CancellationSignal signal) {
+                return QueryUtils.syncEarthquakeData(USGS_REQUEST_URL, current, syncedUpdate, signal, changes);
+            }
+        }, new ResultHandler() {
+            @Override
+            public void onResult(List<EarthquakeData> result) {
+                syncRequest = null;
+                // The refreshed list replaces the loaded one, later pages continue after it
+                if (result != null) {
+                    alertEngine.checkAll(result);
+                    rebuildLoaded(result, null);
+                    queryEngine.addSyncedResponse(changes);
+                    // The sync isn't paged, so the next page follows the base query earthquakes it left loaded
+                    nextOffset = pagedOffset();
+                    publish();
+                    saveSnapshot();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        for (Request request : new Request[] {pageRequest, syncRequest, gapRequest, cacheRequest}) {
+            if (request != null) {
+                request.cancel();
+            }
+        }
+        realtimeFeed.stop();
+        executor.shutdownNow();
+        // The last snapshot is still written, right away if it was waiting for more changes
+        if (isSnapshotPending) {
+            mainHandler.removeCallbacks(snapshotWriter);
+            isSnapshotPending = false;
+            writeSnapshot();
+        }
+        snapshotExecutor.shutdown();
+    }
+
+    private void loadPage(final int offset) {
+        if (pageRequest != null) {
+            pageRequest.cancel();
+        }
+        // Only ask USGS for the page we are responsible for. Only the first page is cached:
+        // it is what opening the app shows, later ones would pile up in the cache with every
+        // scroll, and a failed one would fall back on a stale copy in the middle of fresh pages.
+        final String pageUrl = QueryUtils.buildPageUrl(USGS_REQUEST_URL, offset, PAGE_SIZE);
+        final EarthquakeCache pageCache = offset == 1 ? cache : null;
+        pageRequest = submit(new Task() {
+            @Override
+            public List<EarthquakeData> run(CancellationSignal signal) {
+                return QueryUtils.fetchEarthquakeData(pageUrl, pageCache, signal);
+            }
+        }, new ResultHandler() {
+            @Override
+            public void onResult(List<EarthquakeData> result) {
+                pageRequest = null;
+                onPageLoaded(offset, result);
+            }
+        });
+    }
+
+    private void onPageLoaded(int offset, List<EarthquakeData> result) {
+        // The first page replaces the previously loaded earthquakes, later pages with a valid
+        // list of earthquakes are merged into them by id: earthquakes that came in since the
+        // previous page shift the offsets, so a page can repeat the last ones of the one before.
+        List<EarthquakeData> page = result != null ? result : new ArrayList<EarthquakeData>();
+        if (offset == 1) {
+            alertEngine.checkAll(page);
+            replaceLoaded(page);
+            queryEngine.clearCoverage();
+        } else {
+            mergeLoaded(page, -Double.MAX_VALUE);
+        }
+
+        // A short page means USGS has nothing left for this query. A failed one is asked for
+        // again on the next scroll to the end.
+        if (result != null) {
+            hasMorePages = result.size() == PAGE_SIZE;
+            nextOffset = offset + result.size();
+            pagedSince = offset == 1 ? pageCoverage(result) : Math.min(pagedSince, pageCoverage(result));
+            queryEngine.addCoverage(pageCoverage(result), BASE_MIN_MAGNITUDE);
+            queryEngine.addSyncedResponse(result);
+        }
+        publish();
+        status.setValue(result != null ? Status.LOADED : Status.FAILED);
+        if (result != null) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Show the loaded earthquakes matching the new filter right away, and fetch from USGS
+     * only the part of it they don't cover.
+     */
+    private void applyFilter(EarthquakeFilter newFilter) {
+        filter = newFilter;
+        publish();
+
+        List<EarthquakeFilter> gaps = queryEngine.findGaps(filter);
+        if (gaps.isEmpty()) {
+            return;
+        }
+        if (gapRequest != null) {
+            gapRequest.cancel();
+        }
+        final List<EarthquakeFilter> gapFilters = gaps;
+        final EarthquakeFilter gapFilter = filter;
+        final List<EarthquakeFilter> failedGaps = new ArrayList<>();
+        gapRequest = submit(new Task() {
+            @Override
+            public List<EarthquakeData> run(CancellationSignal signal) {
+                // The magnitude bands of the gaps are fetched at the same time. They aren't
+                // cached: their window starts at the millisecond the filter was set, so each
+                // one would leave a query in the cache that is never asked for again.
+                return QueryUtils.fetchEarthquakeData(USGS_REQUEST_URL, gapFilters, GAP_TIMEOUT_MILLIS, signal,
+                        failedGaps);
+            }
+        }, new ResultHandler() {
+            @Override
+            public void onResult(List<EarthquakeData> result) {
+                gapRequest = null;
+                if (result != null) {
+                    addGap(failedGaps.isEmpty() ? gapFilter : null, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add the earthquakes fetched for the gaps of {@code gapFilter} to the loaded ones.
+     * {@code gapFilter} is null when some of its gaps couldn't be fetched.
+     */
+    private void addGap(EarthquakeFilter gapFilter, List<EarthquakeData> gap) {
+        // The gap can share its edge with what is loaded
+        mergeLoaded(gap, -Double.MAX_VALUE);
+
+        // Every earthquake of the filter is loaded now. Only the magnitudes it asked for are
+        // covered back to its start, the pages of the base query carry on from where they were.
+        if (gapFilter != null && gapFilter.maxMagnitude == Double.MAX_VALUE) {
+            queryEngine.addCoverage(gapFilter.startTime, gapFilter.minMagnitude);
+        }
+        publish();
+        saveSnapshot();
+    }
+
+    /**
+     * Add new and revised recent earthquakes to the loaded ones, pushed by the realtime feed
+     * or downloaded by the sync worker.
+     *
+     * The realtime feed has every M4.5+ earthquake. They are all checked against the alert
+     * rules, but only those of the magnitudes the loaded earthquakes are complete for are kept,
+     * so smaller ones don't show up (or add to the statistics) without the rest of their band.
+     */
+    private void addRecent(List<EarthquakeData> earthquakes) {
+        double minMagnitude = BASE_MIN_MAGNITUDE;
+        double[] coveredMagnitudes = queryEngine.getCoveredMagnitudes();
+        if (coveredMagnitudes.length > 0) {
+            minMagnitude = Math.min(minMagnitude, coveredMagnitudes[0]);
+        }
+        List<EarthquakeData> added = mergeLoaded(earthquakes, minMagnitude);
+
+        // New earthquakes of the base query push the pages after the loaded ones further down.
+        // A page on its way is left alone, its offset was taken before they came in.
+        if (nextOffset > 1 && pageRequest == null) {
+            for (EarthquakeData earthquake : added) {
+                if (earthquake.getMagnitude() >= BASE_MIN_MAGNITUDE) {
+                    nextOffset++;
+                }
+            }
+        }
+        publish();
+        saveSnapshot();
+    }
+
+    /**
+     * Check earthquakes against the alert rules and merge those of at least {@code minMagnitude}
+     * into the loaded ones by id: new ones are added and revised ones replace their loaded copy.
+     * The coverage is left as it is. Return the earthquakes that were new.
+     */
+    private List<EarthquakeData> mergeLoaded(List<EarthquakeData> earthquakes, double minMagnitude) {
+        alertEngine.checkAll(earthquakes);
+        if (minMagnitude > -Double.MAX_VALUE) {
+            List<EarthquakeData> kept = new ArrayList<>(earthquakes.size());
+            for (EarthquakeData earthquake : earthquakes) {
+                if (earthquake.getMagnitude() >= minMagnitude) {
+                    kept.add(earthquake);
+                }
+            }
+            earthquakes = kept;
+        }
+
+        Map<String, Long> loadedUpdates = new HashMap<>();
+        for (int i = 0; i < loadedEarthquakes.size(); i++) {
+            loadedUpdates.put(loadedEarthquakes.getId(i), loadedEarthquakes.getUpdated(i));
+        }
+
+        List<EarthquakeData> added = new ArrayList<>();
+        boolean revised = false;
+        for (EarthquakeData earthquake : earthquakes) {
+            Long updated = loadedUpdates.get(earthquake.getId());
+            if (updated == null) {
+                added.add(earthquake);
+            } else if (earthquake.getUpdated() > updated) {
+                revised = true;
+            }
+        }
+
+        // The store can only be appended to, so a revised earthquake means rebuilding it.
+        // The statistics only need the earthquakes that changed either way.
+        if (revised) {
+            rebuildLoaded(QueryUtils.mergeEarthquakes(loadedEarthquakes.toList(), earthquakes,
+                    Collections.<String>emptySet()), earthquakes);
+        } else if (!added.isEmpty()) {
+            loadedEarthquakes.addAll(added);
+            savedEarthquakes = null;
+            aggregates.updateAll(added);
+        }
+        return added;
+    }
+
+    /**
+     * Replace the loaded earthquakes with an updated list of them, keeping what they cover.
+     * When only {@code changes} differ from the loaded earthquakes the statistics are updated
+     * with them, when null (i.e. some were deleted) they are recomputed.
+     */
+    private void rebuildLoaded(List<EarthquakeData> earthquakes, List<EarthquakeData> changes) {
+        // The query engine keeps the coverage when the store is replaced
+        if (changes != null) {
+            replaceStore(earthquakes);
+            aggregates.updateAll(changes);
+        } else {
+            replaceLoaded(earthquakes);
+        }
+    }
+
+    private void replaceLoaded(List<EarthquakeData> earthquakes) {
+        replaceStore(earthquakes);
+        aggregates.clear();
+        aggregates.updateAll(earthquakes);
+    }
+
+    private void replaceStore(List<EarthquakeData> earthquakes) {
+        loadedEarthquakes.clear();
+        queryEngine.reset();
+        loadedEarthquakes.addAll(earthquakes);
+        savedEarthquakes = null;
+    }
+
+    /**
+     * Return the last snapshot, or null if there is none with earthquakes. Run on the executor.
+     */
+    private EarthquakeSnapshot readSnapshot() {
+        EarthquakeSnapshot snapshot;
+        try {
+            snapshot = EarthquakeSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+            return null;
+        }
+        if (snapshot == null || snapshot.earthquakes.isEmpty()) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Show the earthquakes of a snapshot, with the filter they were shown with.
+     */
+    private void restoreSnapshot(EarthquakeSnapshot snapshot) {
+        // The window still runs up to now
+        windowMillis = snapshot.windowMillis;
+        filter = snapshot.filter.withTimeWindow(System.currentTimeMillis() - windowMillis, Long.MAX_VALUE);
+        isRealtime = snapshot.isRealtime;
+        nextOffset = snapshot.nextOffset;
+        hasMorePages = snapshot.hasMorePages;
+        pagedSince = snapshot.getCoveredSince(BASE_MIN_MAGNITUDE);
+        scrollPosition = snapshot.scrollPosition;
+        restoredScrollPosition = snapshot.scrollPosition;
+
+        replaceLoaded(snapshot.earthquakes);
+        queryEngine.clearCoverage();
+        for (int i = 0; i < snapshot.coveredMagnitudes.length; i++) {
+            queryEngine.addCoverage(snapshot.coveredSinces[i], snapshot.coveredMagnitudes[i]);
+        }
+        queryEngine.setSyncedUpdate(snapshot.syncedUpdate);
+        // They were checked for alerts before the process was killed
+        alertEngine.skipAll(snapshot.earthquakes);
+        publish();
+        status.setValue(Status.LOADED);
+    }
+
+    /**
+     * Save what is loaded, the filter and the scroll position in the background, once
+     * {@link #SNAPSHOT_DELAY_MILLIS} went by: pages, refreshes, realtime updates and scrolls
+     * that come in the meantime are saved with the same snapshot.
+     */
+    private void saveSnapshot() {
+        // Nothing is saved over the last snapshot before it was read
+        if (cacheRequest != null || isSnapshotPending) {
+            return;
+        }
+        isSnapshotPending = true;
+        mainHandler.postDelayed(snapshotWriter, SNAPSHOT_DELAY_MILLIS);
+    }
+
+    /**
+     * Write the snapshot on the snapshot thread. Only the columns of the store are copied on
+     * the main thread, and only if they changed since the last snapshot; the earthquakes are
+     * turned back into {@link EarthquakeData} and written on the snapshot thread.
+     */
+    private void writeSnapshot() {
+        final long savedAt = System.currentTimeMillis();
+        final EarthquakeFilter savedFilter = filter;
+        final long savedWindowMillis = windowMillis;
+        final boolean savedRealtime = isRealtime;
+        final int savedNextOffset = nextOffset;
+        final boolean savedMorePages = hasMorePages;
+        final double[] coveredMagnitudes = queryEngine.getCoveredMagnitudes();
+        final long[] coveredSinces = queryEngine.getCoveredSinces();
+        final long syncedUpdate = queryEngine.getSyncedUpdate();
+        final int savedScrollPosition = scrollPosition;
+        if (savedEarthquakes == null) {
+            savedEarthquakes = new EarthquakeStore(loadedEarthquakes);
+        }
+        final EarthquakeStore saved = savedEarthquakes;
+        snapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                EarthquakeSnapshot snapshot = new EarthquakeSnapshot(savedAt, savedFilter, savedWindowMillis,
+                        savedRealtime, savedNextOffset, savedMorePages, coveredMagnitudes, coveredSinces,
+                        syncedUpdate, savedScrollPosition, saved.toList());
+                try {
+                    snapshot.write(snapshotFile);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the earthquake snapshot", e);
+                }
+            }
+        });
+    }
+
+    private void publish() {
+        earthquakes.setValue(queryEngine.queryEarthquakes(filter));
+    }
+
+    private void updateRealtimeFeed() {
+        if (isRealtime && isVisible) {
+            realtimeFeed.start();
+        } else {
+            realtimeFeed.stop();
+        }
+    }
+
+    /**
+     * Return the offset of the page of the base query after the loaded ones: one past the base
+     * query earthquakes loaded within the time its pages reach back to. Earthquakes a sync or a
+     * gap added before that time aren't part of those pages.
+     */
+    private int pagedOffset() {
+        int count = 0;
+        for (int i = 0; i < loadedEarthquakes.size(); i++) {
+            if (loadedEarthquakes.getMagnitude(i) >= BASE_MIN_MAGNITUDE && loadedEarthquakes.getTime(i) >= pagedSince) {
+                count++;
+            }
+        }
+        return count + 1;
+    }
+
+    /**
+     * Return the oldest time the earthquakes up to and including this page cover: a full page
+     * reaches back to its last earthquake, a short one to the start of the default window.
+     */
+    private static long pageCoverage(List<EarthquakeData> page) {
+        if (page.size() == PAGE_SIZE) {
+            return page.get(page.size() - 1).getTime();
+        }
+        return System.currentTimeMillis() - DEFAULT_WINDOW_MILLIS;
+    }
+
+    /**
+     * Return the rules alerting on any M7+ earthquake, and on 3 or more M5+ in one region
+     * within an hour.
+     */
+    private List<EarthquakeAlertRule> defaultAlertRules() {
+        Application application = getApplication();
+        List<EarthquakeAlertRule> rules = new ArrayList<>();
+        rules.add(EarthquakeAlertRule.minMagnitude(application.getString(R.string.alertMajorEarthquake), 7));
+        rules.add(EarthquakeAlertRule.minMagnitude(application.getString(R.string.alertEarthquakeSwarm), 5)
+                .atLeast(3, EarthquakeAggregates.HOUR_MILLIS));
+        return rules;
+    }
+
+    private Request submit(Task task, ResultHandler handler) {
+        Request request = new Request(task, handler);
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Work of a request, run on the executor. Cancelling {@code signal} aborts it with an
+     * {@link OperationCanceledException}. A null result, or a {@link RuntimeException} thrown,
+     * is handled as a failed request.
+     */
+    private interface Task {
+        List<EarthquakeData> run(CancellationSignal signal);
+    }
+
+    /**
+     * Applies the result of a request, on the main thread.
+     */
+    private interface ResultHandler {
+        void onResult(List<EarthquakeData> result);
+    }
+
+    /**
+     * A task and the handler of its result. Once cancelled, the task is aborted if it is
+     * running and its result is dropped if it already finished.
+     */
+    private final class Request implements Runnable {
+        private final CancellationSignal signal = new CancellationSignal();
+        private final Task task;
+        private final ResultHandler handler;
+
+        Request(Task task, ResultHandler handler) {
+            this.task = task;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            List<EarthquakeData> taskResult;
+            Trace.beginSection("EarthquakeViewModel.request");
+            try {
+                signal.throwIfCanceled();
+                taskResult = task.run(signal);
+            } catch (OperationCanceledException e) {
+                return;
+            } catch (RuntimeException e) {
+                // A bug in the task mustn't leave the request loading forever, it fails like a bad download
+                Log.e(LOG_TAG, "Problem running the request", e);
+                taskResult = null;
+            } finally {
+                Trace.endSection();
+            }
+            final List<EarthquakeData> result = taskResult;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!signal.isCanceled()) {
+                        handler.onResult(result);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Cancel the request, on the main thread.
+         */
+        void cancel() {
+            signal.cancel();
+        }
+    }
+}
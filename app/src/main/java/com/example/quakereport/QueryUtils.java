@@ -1,28 +1,52 @@
 package com.example.quakereport;
 
+import android.net.Uri;
 import android.net.UrlQuerySanitizer;
+import android.os.CancellationSignal;
+import android.os.Debug;
+import android.os.OperationCanceledException;
+import android.os.Trace;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -32,6 +56,51 @@ public final class QueryUtils {
     /** Tag for the log messages */
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Value of the "status" property of an event USGS has removed from its catalog */
+    private static final String STATUS_DELETED = "deleted";
+
+    /** Default time allowed to establish a connection to USGS */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /** Default time allowed to wait for data from USGS once connected */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    private static volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private static volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    /** Size of the chunks the response body is read (and inflated) in */
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
+    /** Largest number of USGS queries fetched at the same time */
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+
+    /** Bounded pool the queries of {@link #fetchEarthquakeData(String, Collection, long, CancellationSignal, List)} run on */
+    private static final ExecutorService FETCH_EXECUTOR = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS);
+
+    /** Cancels the queries running on {@link #FETCH_EXECUTOR} that take too long */
+    private static final ScheduledExecutorService TIMEOUT_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    /** How long the earthquakes of a query are handed out again without asking USGS */
+    private static final long RECENT_FETCH_MAX_AGE_MILLIS = 30 * 1000;
+
+    /** Largest number of queries whose earthquakes are kept in memory */
+    private static final int RECENT_FETCH_MAX_ENTRIES = 16;
+
+    /**
+     * Shares one request between the callers fetching the same query at the same time. The requests
+     * run on their own threads, as callers can be waiting for them on {@link #FETCH_EXECUTOR}.
+     */
+    private static final RequestCoalescer FETCHES = new RequestCoalescer(RECENT_FETCH_MAX_AGE_MILLIS,
+            RECENT_FETCH_MAX_ENTRIES, Executors.newCachedThreadPool());
+
+    /** Orders earthquakes the way USGS does with "orderby=time" */
+    private static final Comparator<EarthquakeData> NEWEST_FIRST = new Comparator<EarthquakeData>() {
+        @Override
+        public int compare(EarthquakeData first, EarthquakeData second) {
+            return Long.compare(second.getTime(), first.getTime());
+        }
+    };
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -44,32 +113,454 @@ public final class QueryUtils {
      * Query the USGS dataset and return an {@link List<EarthquakeData>} object to represent a single earthquake.
      */
     public static List<EarthquakeData> fetchEarthquakeData(String requestUrl) {
+        return fetchEarthquakeData(requestUrl, null, null);
+    }
 
-        try{
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Query the USGS dataset, revalidating the copy kept in {@code cache} if there is one.
+     * When USGS answers 304 Not Modified, or the request fails, the cached earthquakes are
+     * returned instead, so an unchanged feed costs no download and no parsing.
+     * Cancelling {@code signal} aborts the download and the parsing with an
+     * {@link OperationCanceledException}.
+     *
+     * Callers fetching the same query at the same time share a single request, and the
+     * earthquakes it returns are handed out again for {@link #RECENT_FETCH_MAX_AGE_MILLIS}.
+     * The returned list can't be modified.
+     */
+    public static List<EarthquakeData> fetchEarthquakeData(final String requestUrl, final EarthquakeCache cache,
+                                                           CancellationSignal signal) {
 
         Log.i(LOG_TAG,"TEST: FetchEarthquakeData()");
 
         //Create Url Object
-        URL url = createUrl(requestUrl);
+        final URL url = createUrl(requestUrl);
 
-        //make an http request with that url and receive the JSON response back
-        String jsonResponse = null;
+        //make an http request with that url and parse the earthquakes off the response stream,
+        //unless the same request is already on its way
+        List<EarthquakeData> earthquakes = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            earthquakes = FETCHES.fetch(requestUrl, cache != null, signal, new RequestCoalescer.Fetch() {
+                @Override
+                public List<EarthquakeData> run(CancellationSignal signal) throws IOException {
+                    List<EarthquakeData> fetched = makeHttpRequest(url, requestUrl, cache, signal);
+                    // Not Modified, so the cached copy is the current one
+                    if (fetched == null && url != null && cache != null) {
+                        fetched = cache.getEarthquakes(requestUrl);
+                    }
+                    return fetched;
+                }
+            });
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error making the HTTP request", e);
         }
 
-        // Extract relevant fields from the JSON response and create an {@link List<EarthquakeData>} object
-        List<EarthquakeData> earthquakes = extractEarthquakes(jsonResponse);
+        // Fall back on what we had the last time this query succeeded
+        if (earthquakes == null && cache != null) {
+            earthquakes = cache.getEarthquakes(requestUrl);
+        }
         return earthquakes;
     }
 
-    private static URL createUrl(String stringUrl) {
+    /**
+     * Bring the copy of the query kept in {@code cache} up to date without handing the earthquakes back,
+     * i.e. from a background sync. Return true if the cache holds the current earthquakes
+     * afterwards (downloaded, or confirmed by a 304 Not Modified), false if the request failed.
+     */
+    public static boolean refreshEarthquakeData(String requestUrl, EarthquakeCache cache, CancellationSignal signal) {
+        URL url = createUrl(requestUrl);
+        if (url == null) {
+            return false;
+        }
+        try {
+            makeHttpRequest(url, requestUrl, cache, signal);
+            // The earthquakes kept in memory may be older than the ones just stored
+            FETCHES.invalidate(requestUrl);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error refreshing the cached earthquakes", e);
+            return false;
+        }
+    }
+
+    /**
+     * Query USGS for each of {@code filters} on top of {@code baseUrl} at the same time, on at
+     * most {@link #MAX_PARALLEL_REQUESTS} threads, and return their earthquakes merged into a
+     * single list without duplicates, newest first. Each query is given {@code timeoutMillis}
+     * from when it starts: one that doesn't answer in time, or fails, is left out of the result
+     * and its filter added to {@code failed} (when not null). Cancelling {@code signal} cancels
+     * every query and throws an {@link OperationCanceledException}.
+     */
+    public static List<EarthquakeData> fetchEarthquakeData(String baseUrl, Collection<EarthquakeFilter> filters,
+                                                           final long timeoutMillis, CancellationSignal signal,
+                                                           List<EarthquakeFilter> failed) {
+        List<EarthquakeFilter> queries = new ArrayList<>(filters);
+        List<Future<List<EarthquakeData>>> futures = new ArrayList<>(queries.size());
+        final List<CancellationSignal> signals = new ArrayList<>(queries.size());
+        for (EarthquakeFilter query : queries) {
+            final String requestUrl = query.buildUrl(baseUrl);
+            final CancellationSignal querySignal = new CancellationSignal();
+            signals.add(querySignal);
+            futures.add(FETCH_EXECUTOR.submit(new Callable<List<EarthquakeData>>() {
+                @Override
+                public List<EarthquakeData> call() {
+                    // The timeout counts from when the query starts, not while it waits for a thread
+                    ScheduledFuture<?> timeout = TIMEOUT_EXECUTOR.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            querySignal.cancel();
+                        }
+                    }, timeoutMillis, TimeUnit.MILLISECONDS);
+                    try {
+                        return fetchEarthquakeData(requestUrl, null, querySignal);
+                    } finally {
+                        timeout.cancel(false);
+                    }
+                }
+            }));
+        }
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    for (CancellationSignal querySignal : signals) {
+                        querySignal.cancel();
+                    }
+                }
+            });
+        }
+
+        List<List<EarthquakeData>> results = new ArrayList<>(futures.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                List<EarthquakeData> earthquakes = null;
+                try {
+                    earthquakes = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof OperationCanceledException) {
+                        Log.e(LOG_TAG, "Query timed out after " + timeoutMillis + " ms");
+                    } else {
+                        Log.e(LOG_TAG, "Problem fetching the earthquake data", e.getCause());
+                    }
+                } catch (CancellationException e) {
+                    Log.e(LOG_TAG, "Query was cancelled");
+                } catch (InterruptedException e) {
+                    // Give up on the remaining queries and let the caller see the interruption
+                    for (int j = i; j < futures.size(); j++) {
+                        signals.get(j).cancel();
+                        futures.get(j).cancel(true);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new OperationCanceledException();
+                }
+
+                if (earthquakes != null) {
+                    results.add(earthquakes);
+                } else if (failed != null) {
+                    failed.add(queries.get(i));
+                }
+            }
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+        }
+        throwIfCanceled(signal);
+        return mergeQueryResults(results);
+    }
+
+    /**
+     * Return the earthquakes of overlapping queries merged into a single list, newest first.
+     * The same event shows up in every query it matches, it is kept once by id, in its most
+     * recently updated version.
+     */
+    static List<EarthquakeData> mergeQueryResults(List<List<EarthquakeData>> results) {
+        Map<String, EarthquakeData> byId = new LinkedHashMap<>();
+        for (List<EarthquakeData> earthquakes : results) {
+            for (EarthquakeData earthquake : earthquakes) {
+                EarthquakeData previous = byId.get(earthquake.getId());
+                if (previous == null || earthquake.getUpdated() > previous.getUpdated()) {
+                    byId.put(earthquake.getId(), earthquake);
+                }
+            }
+        }
+
+        List<EarthquakeData> merged = new ArrayList<>(byId.values());
+        Collections.sort(merged, NEWEST_FIRST);
+        return merged;
+    }
+
+    /**
+     * Return the given USGS query with its "offset" and "limit" parameters replaced,
+     * so that it only asks for the page starting at the 1-based {@code offset}.
+     */
+    public static String buildPageUrl(String requestUrl, int offset, int limit) {
+        Uri baseUri = Uri.parse(requestUrl);
+        Uri.Builder builder = baseUri.buildUpon().clearQuery();
+
+        // Copy every parameter of the original query except the paging ones
+        for (String name : baseUri.getQueryParameterNames()) {
+            if ("offset".equals(name) || "limit".equals(name)) {
+                continue;
+            }
+            for (String value : baseUri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        builder.appendQueryParameter("offset", String.valueOf(offset));
+        builder.appendQueryParameter("limit", String.valueOf(limit));
+        return builder.build().toString();
+    }
+
+    /**
+     * Return the given URL in a canonical form, so that URLs of the same query compare equal:
+     * the scheme and host in lower case, the query parameters sorted by name then value,
+     * and no fragment.
+     */
+    public static String normalizeUrl(String requestUrl) {
+        Uri uri = Uri.parse(requestUrl);
+        if (!uri.isHierarchical()) {
+            return requestUrl;
+        }
+        Uri.Builder builder = uri.buildUpon().clearQuery().fragment(null);
+        if (uri.getScheme() != null) {
+            builder.scheme(uri.getScheme().toLowerCase(Locale.US));
+        }
+        if (uri.getEncodedAuthority() != null) {
+            builder.encodedAuthority(uri.getEncodedAuthority().toLowerCase(Locale.US));
+        }
+
+        List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+        Collections.sort(names);
+        for (String name : names) {
+            List<String> values = new ArrayList<>(uri.getQueryParameters(name));
+            Collections.sort(values);
+            for (String value : values) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    /**
+     * Bring {@code current} up to date by only asking USGS for the events of the query updated after
+     * {@code updatedAfter} (in milliseconds), then merging them in by event id: new events are
+     * inserted, revised ones replaced and deleted ones removed. {@code updatedAfter} must be the
+     * newest "updated" time of the responses of this query {@code current} was loaded from, see
+     * {@link EarthquakeQueryEngine#getSyncedUpdate()}: an event that came from elsewhere can be
+     * newer than revisions of the others that were never fetched.
+     * The events of the response are added to {@code changes} (when not null).
+     * Return the merged list, newest first, or null if the request failed.
+     */
+    public static List<EarthquakeData> syncEarthquakeData(String requestUrl, List<EarthquakeData> current,
+                                                          long updatedAfter, CancellationSignal signal,
+                                                          List<EarthquakeData> changes) {
+        // Nothing to start from, so there is no delta to ask for
+        if (updatedAfter == 0) {
+            List<EarthquakeData> earthquakes = fetchEarthquakeData(requestUrl, null, signal);
+            if (earthquakes != null && changes != null) {
+                changes.addAll(earthquakes);
+            }
+            return earthquakes;
+        }
+
+        URL url = createUrl(buildDeltaUrl(requestUrl, updatedAfter));
+        if (url == null) {
+            return null;
+        }
+
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            urlConnection = openConnection(url, signal);
+            int responseCode = sendRequest(urlConnection);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error Response Code: " + responseCode);
+                return null;
+            }
+
+            inputStream = openResponseBody(urlConnection);
+            Set<String> deletedIds = new HashSet<>();
+            List<EarthquakeData> delta = extractEarthquakes(inputStream, deletedIds, signal);
+            if (changes != null) {
+                changes.addAll(delta);
+            }
+            return mergeEarthquakes(current, delta, deletedIds);
+        } catch (IOException e) {
+            // A cancelled request fails with an IOException as its socket was closed under it
+            throwIfCanceled(signal);
+            Log.e(LOG_TAG, "Problem retrieving the earthquake updates.", e);
+            return null;
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+            if(urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if(inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the earthquake updates stream.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the given USGS query without its paging parameters, restricted to the events
+     * updated after {@code updatedAfter} (in milliseconds) and including deleted ones.
+     */
+    public static String buildDeltaUrl(String requestUrl, long updatedAfter) {
+        Uri baseUri = Uri.parse(requestUrl);
+        Uri.Builder builder = baseUri.buildUpon().clearQuery();
+
+        for (String name : baseUri.getQueryParameterNames()) {
+            if ("offset".equals(name) || "limit".equals(name) || "updatedafter".equals(name)
+                    || "includedeleted".equals(name)) {
+                continue;
+            }
+            for (String value : baseUri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+
+        // USGS expects an ISO 8601 time, which is read as UTC when it has no time zone
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        builder.appendQueryParameter("updatedafter", isoFormat.format(new Date(updatedAfter)));
+        builder.appendQueryParameter("includedeleted", "true");
+        return builder.build().toString();
+    }
+
+    /**
+     * Return the newest "updated" time of the given earthquakes, or 0 if there are none.
+     */
+    public static long newestUpdate(List<EarthquakeData> earthquakes) {
+        long newest = 0;
+        if (earthquakes != null) {
+            for (EarthquakeData earthquake : earthquakes) {
+                newest = Math.max(newest, earthquake.getUpdated());
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Return a new list holding {@code current} with {@code changes} applied by event id and
+     * the events of {@code deletedIds} removed, sorted newest first.
+     */
+    public static List<EarthquakeData> mergeEarthquakes(List<EarthquakeData> current, List<EarthquakeData> changes,
+                                                        Set<String> deletedIds) {
+        Map<String, EarthquakeData> byId = new LinkedHashMap<>();
+        for (EarthquakeData earthquake : current) {
+            byId.put(earthquake.getId(), earthquake);
+        }
+        for (EarthquakeData earthquake : changes) {
+            byId.put(earthquake.getId(), earthquake);
+        }
+        for (String id : deletedIds) {
+            byId.remove(id);
+        }
+
+        List<EarthquakeData> merged = new ArrayList<>(byId.values());
+        Collections.sort(merged, NEWEST_FIRST);
+        return merged;
+    }
+
+    /**
+     * Set the connect and read timeouts of every request made from now on.
+     */
+    public static void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        QueryUtils.connectTimeoutMillis = connectTimeoutMillis;
+        QueryUtils.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Open a GET connection to the url with the current timeouts. Cancelling {@code signal}
+     * disconnects it, which makes a blocked connect or read fail right away.
+     */
+    static HttpURLConnection openConnection(URL url, CancellationSignal signal) throws IOException {
+        throwIfCanceled(signal);
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setReadTimeout(readTimeoutMillis);
+        urlConnection.setConnectTimeout(connectTimeoutMillis);
+        urlConnection.setRequestMethod("GET");
+        // GeoJSON compresses about 10x. Asking for gzip ourselves means we also have to inflate
+        // it ourselves, see openResponseBody()
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    urlConnection.disconnect();
+                }
+            });
+        }
+        return urlConnection;
+    }
+
+    /**
+     * Connect and send the request, recording in {@link EarthquakeMetrics} how long the DNS lookup,
+     * the connection and the wait for the response headers took. Return the response code.
+     * Release builds don't time the DNS lookup, their connection stage includes it.
+     */
+    static int sendRequest(HttpURLConnection urlConnection) throws IOException {
+        long resolved = System.nanoTime();
+        if (BuildConfig.MEASURE_DNS) {
+            // Resolving the host up front times the lookup on its own, the connection
+            // then gets the address from the system cache. It is an extra blocking call
+            // per request though, so only debug and benchmark builds make it.
+            long start = resolved;
+            Trace.beginSection("QueryUtils.dns");
+            try {
+                InetAddress.getAllByName(urlConnection.getURL().getHost());
+            } finally {
+                Trace.endSection();
+            }
+            resolved = System.nanoTime();
+            EarthquakeMetrics.record(EarthquakeMetrics.Stage.DNS, resolved - start);
+        }
+
+        Trace.beginSection("QueryUtils.connect");
+        try {
+            urlConnection.connect();
+        } finally {
+            Trace.endSection();
+        }
+        long connected = System.nanoTime();
+        EarthquakeMetrics.record(EarthquakeMetrics.Stage.CONNECT, connected - resolved);
+
+        Trace.beginSection("QueryUtils.firstByte");
+        try {
+            int responseCode = urlConnection.getResponseCode();
+            EarthquakeMetrics.record(EarthquakeMetrics.Stage.FIRST_BYTE, System.nanoTime() - connected);
+            return responseCode;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Return the body of the response, inflated if the server sent it gzip compressed.
+     * The stream is buffered in {@link #RESPONSE_BUFFER_SIZE} chunks and handed to the
+     * parser as is, so the body is never copied into a String.
+     */
+    static InputStream openResponseBody(HttpURLConnection urlConnection) throws IOException {
+        InputStream inputStream = new MeteredInputStream(urlConnection.getInputStream());
+        if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            return new GZIPInputStream(inputStream, RESPONSE_BUFFER_SIZE);
+        }
+        return new BufferedInputStream(inputStream, RESPONSE_BUFFER_SIZE);
+    }
+
+    static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+
+    static URL createUrl(String stringUrl) {
         URL url = null;
         try {
             url = new URL(stringUrl);
@@ -79,35 +570,59 @@ public final class QueryUtils {
         return url;
     }
 
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    /**
+     * Return the earthquakes of the response, or null if the URL is malformed or
+     * the copy in {@code cache} is still current. A failed request throws an {@link IOException}.
+     */
+    private static List<EarthquakeData> makeHttpRequest(URL url, String requestUrl, EarthquakeCache cache,
+                                                        CancellationSignal signal) throws IOException {
+        List<EarthquakeData> earthquakes = null;
 
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return earthquakes;
         }
 
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /*milliseconds */);
-            urlConnection.setConnectTimeout(15000 /*milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            urlConnection = openConnection(url, signal);
+
+            // Make the request conditional on the validators of the cached copy
+            EarthquakeCache.Validators validators = cache != null ? cache.getValidators(requestUrl) : null;
+            if (validators != null) {
+                if (validators.etag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", validators.etag);
+                }
+                if (validators.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", validators.lastModified);
+                }
+            }
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if(urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            // then parse the earthquakes straight off the input stream.
+            int responseCode = sendRequest(urlConnection);
+            if(responseCode == HttpURLConnection.HTTP_OK) {
+                inputStream = openResponseBody(urlConnection);
+                earthquakes = extractEarthquakes(inputStream, null, signal);
+                if (cache != null) {
+                    cache.putEarthquakes(requestUrl, earthquakes,
+                            urlConnection.getHeaderField("ETag"),
+                            urlConnection.getHeaderField("Last-Modified"));
+                }
             }
-            else {
-                Log.e(LOG_TAG, "Error Response Code: " + urlConnection.getResponseCode());
+            // Not Modified leaves the cached earthquakes as the current ones
+            else if(responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                throw new IOException("Error Response Code: " + responseCode);
             }
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
+            // A cancelled request fails with an IOException as its socket was closed under it
+            throwIfCanceled(signal);
+            throw e;
         } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
             if(urlConnection != null) {
                 urlConnection.disconnect();
             }
@@ -115,23 +630,9 @@ public final class QueryUtils {
                 inputStream.close();
             }
         }
-        return jsonResponse;
-    }
-
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        if(inputStream != null) {
-            BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-            String line = br.readLine();
-            while (line != null) {
-                sb.append(line);
-                line = br.readLine();
-            }
-        }
-        return sb.toString();
+        return earthquakes;
     }
 
-
     /**
      * Return a list of {@link EarthquakeData} objects that has been built up from
      * parsing a JSON response.
@@ -146,50 +647,307 @@ public final class QueryUtils {
             return null;
         }
 
+        try {
+            return extractEarthquakes(new JsonReader(new StringReader(jsonResponse)), null, null);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Return a list of {@link EarthquakeData} objects parsed straight off a GeoJSON stream.
+     * Features are read one at a time, so only a single feature is ever held in memory
+     * besides the list being built up.
+     */
+    public static List<EarthquakeData> extractEarthquakes(InputStream inputStream) throws IOException {
+        return extractEarthquakes(inputStream, null, null);
+    }
+
+    /**
+     * Same as {@link #extractEarthquakes(InputStream)}, but the ids of the features USGS reports
+     * as deleted (only sent with "includedeleted=true") are added to {@code deletedIds}, and
+     * cancelling {@code signal} stops the parsing at the next feature.
+     */
+    public static List<EarthquakeData> extractEarthquakes(InputStream inputStream, Collection<String> deletedIds,
+                                                          CancellationSignal signal) throws IOException {
+        return extractEarthquakes(new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), deletedIds, signal);
+    }
+
+    private static List<EarthquakeData> extractEarthquakes(JsonReader reader, Collection<String> deletedIds,
+                                                           CancellationSignal signal) throws IOException {
+
         // Create an empty List where we can start adding earthquakes
-        List<EarthquakeData> earthquakes = new ArrayList<>();
+        final List<EarthquakeData> earthquakes = new ArrayList<>();
+        readEarthquakes(reader, deletedIds, new EarthquakeHandler() {
+            @Override
+            public void onEarthquake(EarthquakeData earthquake) {
+                earthquakes.add(earthquake);
+            }
+        }, false, signal);
+
+        // Return the list of earthquakes
+        return earthquakes;
+    }
 
+    /**
+     * Hand the earthquakes of a GeoJSON stream to {@code handler} one at a time as they are
+     * parsed, without building up a list, i.e. to import a catalog export too large to hold in memory.
+     * Deleted events are left out. Return the number of features read.
+     *
+     * Unlike {@link #extractEarthquakes(InputStream)}, a document that isn't a FeatureCollection
+     * throws an {@link IOException}, as the earthquakes handed over before it was noticed are
+     * usually not all there are.
+     */
+    public static int readEarthquakes(InputStream inputStream, EarthquakeHandler handler,
+                                      CancellationSignal signal) throws IOException {
+        return readEarthquakes(new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)),
+                null, handler, true, signal);
+    }
+
+    /**
+     * Read the features of a GeoJSON FeatureCollection. A document of another shape throws an
+     * {@link IOException} when {@code isStrict}, otherwise the features read so far are kept.
+     */
+    private static int readEarthquakes(JsonReader reader, Collection<String> deletedIds, EarthquakeHandler handler,
+                                       boolean isStrict, CancellationSignal signal) throws IOException {
+        // CPU time leaves out the time blocked on the network, which is recorded as the download
+        Trace.beginSection("QueryUtils.parse");
+        long start = Debug.threadCpuTimeNanos();
+        int features = 0;
+        boolean hasFeatures = false;
         try {
-            JSONObject root = new JSONObject(jsonResponse);
-            JSONArray features = root.getJSONArray("features");
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // Only the "features" array is of interest, skip metadata, bbox and the rest
+                if (!"features".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                // For each earthquake in the features array, create an {@link EarthquakeData} object
+                hasFeatures = true;
+                Feature feature = new Feature();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    throwIfCanceled(signal);
+                    features++;
+                    if (!readFeature(reader, feature)) {
+                        continue;
+                    }
+                    if (!STATUS_DELETED.equals(feature.status)) {
+                        handler.onEarthquake(feature.toEarthquake());
+                    } else if (deletedIds != null) {
+                        deletedIds.add(feature.id);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            if (isStrict && !hasFeatures) {
+                throw new IOException("No features array in the GeoJSON document");
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            if (isStrict) {
+                throw new IOException("Not a GeoJSON FeatureCollection", e);
+            }
+            // If the document doesn't have the expected shape, keep whatever was parsed so far
+            // so the app doesn't crash. Print a log message with the message from the exception.
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+        } finally {
+            reader.close();
+            EarthquakeMetrics.record(EarthquakeMetrics.Stage.PARSE, Debug.threadCpuTimeNanos() - start);
+            EarthquakeMetrics.increment(EarthquakeMetrics.Counter.FEATURES, features);
+            Trace.endSection();
+        }
+        return features;
+    }
 
-            // For each earthquake in the earthquakeArray, create an {@link EarthquakeData} object
-            for(int i = 0; i < features.length(); i++) {
+    /**
+     * Read a single GeoJSON feature into {@code feature}. Return false if the feature carries
+     * no "properties" object, or no "id": events are merged and cached by id, so features
+     * without one would all collapse into a single earthquake.
+     */
+    private static boolean readFeature(JsonReader reader, Feature feature) throws IOException {
+        feature.reset();
+        boolean hasProperties = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                feature.id = reader.nextString();
+            } else if ("geometry".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader, feature);
+            } else if ("properties".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // For a given earthquake, the object associated with the key called "properties"
+                // represents a list of all properties for that earthquake.
+                readProperties(reader, feature);
+                hasProperties = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-                // Get a single earthquake at position i within the list of earthquakes
-                JSONObject feature = features.getJSONObject(i);
+        return hasProperties && !feature.id.isEmpty();
+    }
 
-                // For a given earthquake, extract the JSONObject associated with the
-                // key called "properties", which represents a list of all properties
-                // for that earthquake.
-                JSONObject properties = feature.getJSONObject("properties");
+    /**
+     * Read the "coordinates" of a GeoJSON point geometry: longitude, latitude and depth, in that order.
+     */
+    private static void readGeometry(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"coordinates".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (reader.peek() == JsonToken.NULL || i > 2) {
+                    reader.skipValue();
+                } else if (i == 0) {
+                    feature.longitude = reader.nextDouble();
+                } else if (i == 1) {
+                    feature.latitude = reader.nextDouble();
+                } else {
+                    feature.depth = reader.nextDouble();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private static void readProperties(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            // Optional values such as "mag" or "place" can be null in the USGS feed
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+
+            switch (name) {
+                case "mag":
+                    feature.mag = reader.nextDouble();
+                    break;
+                case "place":
+                    feature.place = reader.nextString();
+                    break;
+                case "time":
+                    feature.time = reader.nextLong();
+                    break;
+                case "updated":
+                    feature.updated = reader.nextLong();
+                    break;
+                case "status":
+                    feature.status = reader.nextString();
+                    break;
+                case "url":
+                    feature.url = reader.nextString();
+                    break;
+                default:
+                    // Skip the properties we don't use without building them up
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
 
-                // Extract the value for the key called "mag"
-                double mag = properties.getDouble("mag");
+    /**
+     * Receives the earthquakes of a response as they are parsed, see
+     * {@link #readEarthquakes(InputStream, EarthquakeHandler, CancellationSignal)}.
+     */
+    public interface EarthquakeHandler {
+        void onEarthquake(EarthquakeData earthquake) throws IOException;
+    }
+
+    /**
+     * Fields of the feature being parsed. The "id" of a USGS feature comes after its
+     * "properties", so they are collected here before the {@link EarthquakeData} is built.
+     * A single instance is reused for every feature of a response.
+     */
+    private static final class Feature {
+        String id;
+        double mag;
+        String place;
+        long time;
+        long updated;
+        String url;
+        String status;
+        double latitude;
+        double longitude;
+        double depth;
+
+        void reset() {
+            id = "";
+            mag = 0;
+            place = "";
+            time = 0;
+            updated = 0;
+            url = "";
+            status = "";
+            latitude = 0;
+            longitude = 0;
+            depth = 0;
+        }
 
-                // Extract the value for the key called "place"
-                String place = properties.getString("place");
+        // Create a new {@link EarthquakeData} object with the id, magnitude, location, time,
+        // update time, url and coordinates from the JSON response.
+        EarthquakeData toEarthquake() {
+            return new EarthquakeData(id, mag, place, time, updated, url, latitude, longitude, depth);
+        }
+    }
 
-                // Extract the value for the key called "time"
-                long time = properties.getLong("time");
+    /**
+     * Counts the bytes of a response body as they come off the network and the time spent
+     * waiting for them, recorded in {@link EarthquakeMetrics} when the body is closed.
+     */
+    private static final class MeteredInputStream extends FilterInputStream {
+        private long bytes;
+        private long nanos;
+        private boolean closed;
 
-                // Extract the value for the key called "url"
-                String url = properties.getString("url");
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
 
-                // Create a new {@link EarthquakeData} object with the magnitude, location, time,
-                // and url from the JSON response and Add the new {@link EarthquakeData} to the list of earthquakes.
-                earthquakes.add(new EarthquakeData(mag, place, time, url));
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int value = super.read();
+            nanos += System.nanoTime() - start;
+            if (value != -1) {
+                bytes++;
             }
+            return value;
+        }
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int count = super.read(buffer, offset, length);
+            nanos += System.nanoTime() - start;
+            if (count > 0) {
+                bytes += count;
+            }
+            return count;
         }
 
-        // Return the list of earthquakes
-        return earthquakes;
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                EarthquakeMetrics.record(EarthquakeMetrics.Stage.DOWNLOAD, nanos);
+                EarthquakeMetrics.increment(EarthquakeMetrics.Counter.BYTES_RECEIVED, bytes);
+            }
+            super.close();
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,158 @@
+package com.example.quakereport;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls an {@link EarthquakeFeedSource} on a background thread while started, and hands
+ * the earthquakes that are new or were revised since they were last seen to a
+ * {@link Listener} on the main thread.
+ *
+ * Polls are spaced by the interval plus or minus a random jitter, so that many devices don't
+ * hit the feed at the same moment. Failed polls, whether the source threw an IOException or
+ * anything unexpected, back off exponentially up to {@link #MAX_BACKOFF_MILLIS}.
+ */
+public final class RealtimeFeed {
+
+    private static final String LOG_TAG = RealtimeFeed.class.getSimpleName();
+
+    /** Longest wait between polls after repeated failures */
+    private static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+
+    /** Receives the earthquakes of the feed that are new or revised, on the main thread */
+    public interface Listener {
+        void onEarthquakes(List<EarthquakeData> earthquakes);
+    }
+
+    private final EarthquakeFeedSource source;
+    private final long intervalMillis;
+    private final long jitterMillis;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** The running polls, or null when stopped */
+    private Session session;
+
+    /**
+     * @param intervalMillis time between two polls of the feed
+     * @param jitterMillis largest random amount added to or taken from the interval
+     */
+    public RealtimeFeed(EarthquakeFeedSource source, long intervalMillis, long jitterMillis, Listener listener) {
+        this.source = source;
+        this.intervalMillis = intervalMillis;
+        this.jitterMillis = jitterMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Start polling right away. Does nothing if already started.
+     */
+    public void start() {
+        if (session == null) {
+            session = new Session();
+            session.schedule(0);
+        }
+    }
+
+    /**
+     * Stop polling, aborting a poll in progress. Nothing is delivered to the listener afterwards.
+     */
+    public void stop() {
+        if (session != null) {
+            session.cancel();
+            session = null;
+        }
+    }
+
+    public boolean isStarted() {
+        return session != null;
+    }
+
+    /**
+     * The polls between one start and stop, with their own thread and cancellation signal
+     * so a poll still finishing after a stop can't leak into the next start.
+     */
+    private final class Session implements Runnable {
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        private final CancellationSignal signal = new CancellationSignal();
+
+        /** Last "updated" time of every earthquake seen, so only changes are delivered */
+        private final Map<String, Long> seenUpdates = new HashMap<>();
+        private int failures;
+
+        @Override
+        public void run() {
+            long delay;
+            try {
+                List<EarthquakeData> earthquakes = source.poll(signal);
+                failures = 0;
+                if (earthquakes != null) {
+                    deliver(changed(earthquakes));
+                }
+                delay = intervalMillis;
+            } catch (OperationCanceledException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // A bad feed (or a bug handling it) only skips this poll, polling carries on backing off
+                Log.e(LOG_TAG, "Problem polling the earthquake feed", e);
+                failures++;
+                delay = Math.min(intervalMillis << Math.min(failures, 16), MAX_BACKOFF_MILLIS);
+            }
+            schedule(delay);
+        }
+
+        void schedule(long delayMillis) {
+            long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1) : 0;
+            try {
+                executor.schedule(this, Math.max(0, delayMillis + jitter), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Stopped in the meantime
+            }
+        }
+
+        void cancel() {
+            signal.cancel();
+            executor.shutdownNow();
+        }
+
+        private List<EarthquakeData> changed(List<EarthquakeData> earthquakes) {
+            List<EarthquakeData> changed = new ArrayList<>();
+            for (EarthquakeData earthquake : earthquakes) {
+                Long seen = seenUpdates.get(earthquake.getId());
+                if (seen == null || earthquake.getUpdated() > seen) {
+                    seenUpdates.put(earthquake.getId(), earthquake.getUpdated());
+                    changed.add(earthquake);
+                }
+            }
+            return changed;
+        }
+
+        private void deliver(final List<EarthquakeData> earthquakes) {
+            if (earthquakes.isEmpty()) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!signal.isCanceled()) {
+                        listener.onEarthquakes(earthquakes);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.quakereport;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses fetches of the same USGS query into one. Callers asking for a URL that is already
+ * being fetched wait for that request and share its parsed earthquakes instead of opening a
+ * connection of their own, and the earthquakes of a successful fetch are kept in memory for a
+ * short while so callers right behind it get them without any request at all.
+ *
+ * URLs are compared after {@link QueryUtils#normalizeUrl}, so the same query with its
+ * parameters in another order is the same fetch. A fetch that writes through to the cache is
+ * never shared with one that doesn't, so a cached query always ends up in the cache.
+ * Shared lists can't be modified.
+ *
+ * The shared request runs on the executor, every caller waits for it on its own thread. A caller
+ * cancelling its signal stops waiting right away; the shared request is aborted once every caller
+ * waiting for it has cancelled.
+ */
+final class RequestCoalescer {
+
+    /** The request shared by the callers of a URL, run on the executor */
+    interface Fetch {
+        /**
+         * Return the earthquakes of the query, or null if there are none to share.
+         */
+        List<EarthquakeData> run(CancellationSignal signal) throws IOException;
+    }
+
+    private final long maxAgeNanos;
+    private final Executor executor;
+
+    /** Requests in flight by normalized URL, guarded by this */
+    private final Map<String, Call> inFlight = new HashMap<>();
+
+    /** Earthquakes of the latest successful fetches by normalized URL, least recently used first, guarded by this */
+    private final LinkedHashMap<String, Entry> recent;
+
+    /**
+     * @param maxAgeMillis how long the earthquakes of a fetch are handed out again
+     * @param maxEntries how many fetches are kept in memory at most
+     * @param executor runs the shared requests, it must not make them wait for a thread as
+     *                 callers can be waiting for them on its own threads
+     */
+    RequestCoalescer(long maxAgeMillis, final int maxEntries, Executor executor) {
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.executor = executor;
+        this.recent = new LinkedHashMap<String, Entry>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the earthquakes of {@code requestUrl}: the ones fetched within the last
+     * {@code maxAgeMillis}, the ones of the request in flight for it, or else the ones
+     * {@code fetch} returns. {@code isCached} tells whether {@code fetch} writes through to the
+     * cache. A failed request throws its {@link IOException} to every caller sharing it, and a
+     * cancelled {@code signal} throws an {@link OperationCanceledException}.
+     */
+    List<EarthquakeData> fetch(String requestUrl, boolean isCached, CancellationSignal signal, final Fetch fetch)
+            throws IOException {
+        QueryUtils.throwIfCanceled(signal);
+        String key = key(requestUrl, isCached);
+
+        Call call;
+        boolean isFirst = false;
+        synchronized (this) {
+            Entry entry = recent.get(key);
+            if (entry != null && System.nanoTime() - entry.fetchedNanos < maxAgeNanos) {
+                EarthquakeMetrics.increment(EarthquakeMetrics.Counter.MEMORY_HITS, 1);
+                return entry.earthquakes;
+            }
+
+            call = inFlight.get(key);
+            if (call == null) {
+                call = new Call(key);
+                inFlight.put(key, call);
+                isFirst = true;
+            } else {
+                EarthquakeMetrics.increment(EarthquakeMetrics.Counter.COALESCED_REQUESTS, 1);
+            }
+            call.waiters++;
+        }
+
+        Waiter waiter = new Waiter(call);
+        if (signal != null) {
+            signal.setOnCancelListener(waiter);
+        }
+        try {
+            if (isFirst) {
+                final Call firstCall = call;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        RequestCoalescer.this.run(firstCall, fetch);
+                    }
+                });
+            }
+            return await(waiter, signal);
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+        }
+    }
+
+    /**
+     * Forget the earthquakes kept for {@code requestUrl}, i.e. once it is known to have changed.
+     */
+    synchronized void invalidate(String requestUrl) {
+        recent.remove(key(requestUrl, true));
+        recent.remove(key(requestUrl, false));
+    }
+
+    /**
+     * Forget every earthquake kept in memory.
+     */
+    synchronized void clear() {
+        recent.clear();
+    }
+
+    private static String key(String requestUrl, boolean isCached) {
+        return (isCached ? "cached:" : "") + QueryUtils.normalizeUrl(requestUrl);
+    }
+
+    private void run(Call call, Fetch fetch) {
+        List<EarthquakeData> earthquakes = null;
+        IOException error = null;
+        RuntimeException crash = null;
+        try {
+            earthquakes = fetch.run(call.signal);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            // Including the OperationCanceledException of a request every caller gave up on
+            crash = e;
+        }
+
+        synchronized (this) {
+            call.earthquakes = earthquakes != null ? Collections.unmodifiableList(earthquakes) : null;
+            call.error = error;
+            call.crash = crash;
+            call.isDone = true;
+            if (inFlight.get(call.key) == call) {
+                inFlight.remove(call.key);
+            }
+            if (call.earthquakes != null) {
+                recent.put(call.key, new Entry(call.earthquakes, System.nanoTime()));
+            }
+            notifyAll();
+        }
+    }
+
+    private List<EarthquakeData> await(Waiter waiter, CancellationSignal signal) throws IOException {
+        Call call = waiter.call;
+        synchronized (this) {
+            while (!call.isDone && !waiter.hasLeft) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    leave(waiter);
+                    throw new OperationCanceledException();
+                }
+            }
+        }
+
+        // The request may have finished for the others after this caller gave up on it
+        if (waiter.hasLeft) {
+            throw new OperationCanceledException();
+        }
+        QueryUtils.throwIfCanceled(signal);
+        if (call.error != null) {
+            throw call.error;
+        }
+        if (call.crash != null) {
+            throw call.crash;
+        }
+        return call.earthquakes;
+    }
+
+    /**
+     * Stop waiting for the request of {@code waiter}, aborting it if nobody else waits for it.
+     */
+    private void leave(Waiter waiter) {
+        Call call = waiter.call;
+        boolean isAbandoned;
+        synchronized (this) {
+            if (waiter.hasLeft || call.isDone) {
+                return;
+            }
+            waiter.hasLeft = true;
+            call.waiters--;
+            isAbandoned = call.waiters == 0;
+            // Callers coming after this start a request of their own instead of joining an aborted one
+            if (isAbandoned && inFlight.get(call.key) == call) {
+                inFlight.remove(call.key);
+            }
+            notifyAll();
+        }
+        // Cancelled outside the lock, its listener disconnects the request
+        if (isAbandoned) {
+            call.signal.cancel();
+        }
+    }
+
+    /**
+     * One request and its outcome, shared by every caller of its URL while it is in flight.
+     * Its fields are guarded by the coalescer.
+     */
+    private static final class Call {
+        final String key;
+        final CancellationSignal signal = new CancellationSignal();
+        int waiters;
+        boolean isDone;
+        List<EarthquakeData> earthquakes;
+        IOException error;
+        RuntimeException crash;
+
+        Call(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * One caller waiting for a {@link Call}, which leaves it when its own signal is cancelled.
+     */
+    private final class Waiter implements CancellationSignal.OnCancelListener {
+        final Call call;
+        boolean hasLeft;
+
+        Waiter(Call call) {
+            this.call = call;
+        }
+
+        @Override
+        public void onCancel() {
+            leave(this);
+        }
+    }
+
+    private static final class Entry {
+        final List<EarthquakeData> earthquakes;
+        final long fetchedNanos;
+
+        Entry(List<EarthquakeData> earthquakes, long fetchedNanos) {
+            this.earthquakes = earthquakes;
+            this.fetchedNanos = fetchedNanos;
+        }
+    }
+}
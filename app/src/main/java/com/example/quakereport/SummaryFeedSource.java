@@ -0,0 +1,82 @@
+package com.example.quakereport;
+
+import android.os.CancellationSignal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Polls one of the USGS GeoJSON summary feeds, which are regenerated every minute.
+ * Each poll is a conditional GET on the validators of the previous response, so an
+ * unchanged feed costs a 304 Not Modified and no parsing.
+ */
+public final class SummaryFeedSource implements EarthquakeFeedSource {
+
+    /** Significant earthquakes of the past hour */
+    public static final String SIGNIFICANT_HOUR_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/significant_hour.geojson";
+
+    /** Earthquakes of magnitude 4.5 and over of the past hour */
+    public static final String M4_5_HOUR_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/4.5_hour.geojson";
+
+    private final String feedUrl;
+
+    /** Validators of the last response, only touched by the thread polling */
+    private String etag;
+    private String lastModified;
+
+    public SummaryFeedSource(String feedUrl) {
+        this.feedUrl = feedUrl;
+    }
+
+    @Override
+    public List<EarthquakeData> poll(CancellationSignal signal) throws IOException {
+        URL url = QueryUtils.createUrl(feedUrl);
+        if (url == null) {
+            throw new IOException("Malformed feed URL " + feedUrl);
+        }
+
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            urlConnection = QueryUtils.openConnection(url, signal);
+            if (etag != null) {
+                urlConnection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            int responseCode = QueryUtils.sendRequest(urlConnection);
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Error Response Code: " + responseCode);
+            }
+
+            inputStream = QueryUtils.openResponseBody(urlConnection);
+            List<EarthquakeData> earthquakes = QueryUtils.extractEarthquakes(inputStream, null, signal);
+            etag = urlConnection.getHeaderField("ETag");
+            lastModified = urlConnection.getHeaderField("Last-Modified");
+            return earthquakes;
+        } catch (IOException e) {
+            // A cancelled request fails with an IOException as its socket was closed under it
+            QueryUtils.throwIfCanceled(signal);
+            throw e;
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+}
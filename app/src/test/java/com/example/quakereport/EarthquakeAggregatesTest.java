@@ -0,0 +1,103 @@
+package com.example.quakereport;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeAggregatesTest {
+
+    private static final long HOUR = EarthquakeAggregates.HOUR_MILLIS;
+    private static final long DAY = EarthquakeAggregates.DAY_MILLIS;
+    private static final long NOW = 1000 * DAY;
+
+    private static final String[] REGIONS = {"Japan", "Fiji region", "Chile", "Alaska", "Tonga"};
+
+    private static EarthquakeData earthquake(String id, double magnitude, long time, String region) {
+        return new EarthquakeData(id, magnitude, "10 km N of Foo, " + region, time, time, "", 0, 0, 10);
+    }
+
+    private static void assertSameStatistics(EarthquakeAggregates expected, EarthquakeAggregates actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getTotalEnergy(), actual.getTotalEnergy(), expected.getTotalEnergy() * 1e-9);
+        assertEquals(expected.getDailyCounts(), actual.getDailyCounts());
+        assertArrayEquals(expected.getMagnitudeHistogram(), actual.getMagnitudeHistogram());
+        assertEquals(expected.getMaxMagnitudeByHour(), actual.getMaxMagnitudeByHour());
+        Map<String, Double> expectedEnergy = expected.getEnergyByRegion();
+        Map<String, Double> actualEnergy = actual.getEnergyByRegion();
+        assertEquals(expectedEnergy.keySet(), actualEnergy.keySet());
+        for (Map.Entry<String, Double> entry : expectedEnergy.entrySet()) {
+            assertEquals(entry.getValue(), actualEnergy.get(entry.getKey()), entry.getValue() * 1e-9);
+        }
+    }
+
+    @Test
+    public void summarize_sameAsAddingOneByOne() {
+        // Large enough to be split across several tasks and merged
+        Random random = new Random(42);
+        EarthquakeStore catalog = new EarthquakeStore();
+        EarthquakeAggregates sequential = new EarthquakeAggregates();
+        for (int i = 0; i < 50000; i++) {
+            EarthquakeData earthquake = earthquake("id" + i, Math.round(random.nextDouble() * 800) / 100.0,
+                    NOW - (long) (random.nextDouble() * 30 * DAY), REGIONS[random.nextInt(REGIONS.length)]);
+            catalog.add(earthquake);
+            sequential.update(earthquake);
+        }
+
+        EarthquakeAggregates summarized = EarthquakeAggregates.summarize(catalog);
+        assertSameStatistics(sequential, summarized);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void summarize_cannotBeRevised() {
+        EarthquakeStore catalog = new EarthquakeStore();
+        catalog.add(earthquake("a", 6, NOW, "Japan"));
+        EarthquakeAggregates.summarize(catalog).update(earthquake("a", 6.5, NOW, "Japan"));
+    }
+
+    @Test
+    public void update_revision_replacesThePreviousVersion() {
+        EarthquakeAggregates aggregates = new EarthquakeAggregates();
+        aggregates.update(earthquake("a", 6.2, NOW, "Japan"));
+        aggregates.update(earthquake("a", 5.1, NOW - 2 * DAY, "Fiji region"));
+
+        EarthquakeAggregates expected = new EarthquakeAggregates();
+        expected.update(earthquake("a", 5.1, NOW - 2 * DAY, "Fiji region"));
+        assertSameStatistics(expected, aggregates);
+        assertEquals(0, aggregates.getDailyCount(NOW));
+        assertEquals(0, aggregates.getEnergy("Japan"), 0);
+        assertTrue(Double.isNaN(aggregates.getMaxMagnitude(NOW)));
+    }
+
+    @Test
+    public void update_thenRevisedAndRemoved_leavesNoResidue() {
+        EarthquakeAggregates aggregates = new EarthquakeAggregates();
+        aggregates.update(earthquake("a", 7.4, NOW, "Japan"));
+        aggregates.update(earthquake("b", 4.3, NOW + HOUR, "Japan"));
+        aggregates.update(earthquake("a", 7.1, NOW, "Japan"));
+        aggregates.update(earthquake("b", 4.6, NOW + HOUR, "Chile"));
+        aggregates.remove("a");
+        aggregates.remove("b");
+
+        assertEquals(0, aggregates.getCount());
+        assertEquals(0, aggregates.getTotalEnergy(), 0);
+        assertTrue(aggregates.getDailyCounts().isEmpty());
+        assertArrayEquals(new int[EarthquakeAggregates.MAGNITUDE_BINS], aggregates.getMagnitudeHistogram());
+        assertTrue(aggregates.getEnergyByRegion().isEmpty());
+        assertTrue(aggregates.getMaxMagnitudeByHour().isEmpty());
+    }
+
+    @Test
+    public void update_lowerRevision_lowersTheMaxOfTheHour() {
+        EarthquakeAggregates aggregates = new EarthquakeAggregates();
+        aggregates.update(earthquake("a", 6.8, NOW, "Japan"));
+        aggregates.update(earthquake("b", 6.1, NOW + 10 * 60 * 1000, "Japan"));
+        assertEquals(6.8, aggregates.getMaxMagnitude(NOW), 1e-9);
+
+        aggregates.update(earthquake("a", 5.9, NOW, "Japan"));
+        assertEquals(6.1, aggregates.getMaxMagnitude(NOW), 1e-9);
+        assertEquals(2, aggregates.getDailyCount(NOW));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeAlertEngineTest {
+
+    private static final long HOUR = EarthquakeAggregates.HOUR_MILLIS;
+    private static final long NOW = 1000 * EarthquakeAggregates.DAY_MILLIS;
+
+    private final List<String> alerts = new ArrayList<>();
+    private EarthquakeAlertEngine.Listener listener;
+
+    @Before
+    public void setUp() {
+        listener = new EarthquakeAlertEngine.Listener() {
+            @Override
+            public void onAlert(EarthquakeAlertRule rule, EarthquakeData earthquake) {
+                alerts.add(rule.name + ":" + earthquake.getId());
+            }
+        };
+    }
+
+    private static EarthquakeData earthquake(String id, double magnitude, long time, double latitude, double longitude) {
+        return new EarthquakeData(id, magnitude, "Somewhere", time, time, "", latitude, longitude, 10);
+    }
+
+    private EarthquakeAlertEngine engine(EarthquakeAlertRule rule) {
+        return new EarthquakeAlertEngine(Collections.singletonList(rule), NOW - HOUR, listener);
+    }
+
+    @Test
+    public void check_withinRadius_onlyCloseEarthquakes() {
+        // Tokyo, 100 km
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("near", 5)
+                .withinRadius(100, new double[] {35.68}, new double[] {139.69}));
+
+        engine.check(earthquake("yokohama", 5.5, NOW, 35.44, 139.64));
+        engine.check(earthquake("osaka", 6.5, NOW, 34.69, 135.50));
+        engine.check(earthquake("small", 4.5, NOW, 35.68, 139.69));
+        assertEquals(Collections.singletonList("near:yokohama"), alerts);
+    }
+
+    @Test
+    public void check_withinRadius_acrossTheAntimeridian() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("fiji", 5)
+                .withinRadius(300, new double[] {-17.7}, new double[] {179.9}));
+
+        engine.check(earthquake("east", 5.5, NOW, -17.7, -178.5));
+        engine.check(earthquake("far", 5.5, NOW, -17.7, -175));
+        assertEquals(Collections.singletonList("fiji:east"), alerts);
+    }
+
+    @Test
+    public void check_sameEarthquakeOrOlderThanTheStart_onlyOnce() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("major", 7));
+
+        engine.check(earthquake("a", 7.1, NOW, 0, 0));
+        engine.check(earthquake("a", 7.3, NOW, 0, 0));
+        engine.check(earthquake("old", 7.5, NOW - 2 * HOUR, 0, 0));
+        assertEquals(Collections.singletonList("major:a"), alerts);
+    }
+
+    @Test
+    public void check_countRule_firesAtTheCountThenStartsOver() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("swarm", 5).atLeast(3, HOUR));
+
+        engine.check(earthquake("a", 5.1, NOW, 10, 10));
+        engine.check(earthquake("b", 5.2, NOW + 10 * 60 * 1000, 10.5, 10.5));
+        assertTrue(alerts.isEmpty());
+        engine.check(earthquake("c", 5.3, NOW + 20 * 60 * 1000, 10.2, 10.2));
+        assertEquals(Collections.singletonList("swarm:c"), alerts);
+
+        // The ring starts over, so the next one alone doesn't alert again
+        engine.check(earthquake("d", 5.4, NOW + 30 * 60 * 1000, 10.2, 10.2));
+        assertEquals(1, alerts.size());
+    }
+
+    @Test
+    public void check_countRule_spreadOverMoreThanTheWindow_noAlert() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("swarm", 5).atLeast(3, HOUR));
+
+        engine.check(earthquake("a", 5.1, NOW, 10, 10));
+        engine.check(earthquake("b", 5.1, NOW + HOUR, 10, 10));
+        engine.check(earthquake("c", 5.1, NOW + 2 * HOUR, 10, 10));
+        assertTrue(alerts.isEmpty());
+
+        // The ring slides: b to d still spread over more than the hour, c to e don't
+        engine.check(earthquake("d", 5.1, NOW + 2 * HOUR + 1, 10, 10));
+        assertTrue(alerts.isEmpty());
+        engine.check(earthquake("e", 5.1, NOW + 2 * HOUR + 2, 10, 10));
+        assertEquals(Collections.singletonList("swarm:e"), alerts);
+    }
+
+    @Test
+    public void check_countRule_regionsCountedApart() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("swarm", 5).atLeast(2, HOUR));
+
+        engine.check(earthquake("a", 5.1, NOW, 10, 10));
+        engine.check(earthquake("b", 5.1, NOW, -11, -11));
+        assertTrue(alerts.isEmpty());
+        engine.check(earthquake("c", 5.1, NOW, -11.5, -11.5));
+        assertEquals(Collections.singletonList("swarm:c"), alerts);
+    }
+
+    @Test
+    public void check_countRule_manyRegions_keepTheirRingsWhenGrowing() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("swarm", 5).atLeast(2, HOUR));
+
+        // One earthquake in each of 100 regions, well past the 8 keys the first arrays hold
+        for (int i = 0; i < 100; i++) {
+            engine.check(earthquake("first" + i, 5.1, NOW, -80 + i * 1.5, -170 + i * 3.1));
+        }
+        assertTrue(alerts.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            engine.check(earthquake("second" + i, 5.1, NOW + 1, -80 + i * 1.5, -170 + i * 3.1));
+        }
+        assertEquals(100, alerts.size());
+    }
+
+    @Test
+    public void check_oldIds_prunedAfterTheRetention() {
+        EarthquakeAlertEngine engine = engine(EarthquakeAlertRule.minMagnitude("major", 7));
+        long retention = EarthquakeAlertEngine.RETENTION_MILLIS;
+
+        for (int i = 0; i < 10; i++) {
+            engine.check(earthquake("early" + i, 7.1, NOW + i, 0, 0));
+        }
+        assertEquals(10, engine.getCheckedCount());
+
+        engine.check(earthquake("late", 7.1, NOW + 2 * retention, 0, 0));
+        assertEquals(1, engine.getCheckedCount());
+
+        // Seen again after being forgotten, it is older than the start now and still not alerted
+        alerts.clear();
+        engine.check(earthquake("early0", 7.1, NOW, 0, 0));
+        assertTrue(alerts.isEmpty());
+    }
+}
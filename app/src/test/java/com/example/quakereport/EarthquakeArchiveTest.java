@@ -0,0 +1,100 @@
+package com.example.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeArchiveTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("earthquake_archive", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void writeThenOpen_sameEarthquakes() throws IOException {
+        EarthquakeArchive.Writer writer = new EarthquakeArchive.Writer(file);
+        writer.add(new EarthquakeData("us7000abcd", 7.25, "15 km SSW of Hachinohe, Japan", 1600000000000L,
+                1600000600000L, "https://earthquake.usgs.gov/earthquakes/eventpage/us7000abcd", 40.4, 141.4, 35.5));
+        writer.add(new EarthquakeData("ak0001", 6.2, "Southern Alaska", -86400000L, 0L,
+                "https://example.com/ak0001.html", -60.125, -152.5, 0));
+        writer.finish();
+        assertFalse(new File(file.getPath() + ".part").exists());
+
+        EarthquakeArchive archive = EarthquakeArchive.open(file);
+        assertEquals(2, archive.size());
+        assertEquals("us7000abcd", archive.getId(0));
+        assertEquals(7.25, archive.getMagnitude(0), 0);
+        assertEquals("15 km SSW of", archive.getLocationOffset(0));
+        assertEquals("Hachinohe, Japan", archive.getPrimaryLocation(0));
+        assertEquals(1600000000000L, archive.getTime(0));
+        assertEquals(1600000600000L, archive.getUpdated(0));
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/us7000abcd", archive.getUrl(0));
+        assertEquals(40.4, archive.getLatitude(0), 1e-5);
+        assertEquals(141.4, archive.getLongitude(0), 1e-5);
+        assertEquals(35.5, archive.getDepth(0), 0);
+
+        EarthquakeData second = archive.get(1);
+        assertEquals("ak0001", second.getId());
+        assertEquals("Southern Alaska", second.getPlace());
+        assertEquals(-86400000L, second.getTime());
+        assertEquals("https://example.com/ak0001.html", second.getUrl());
+        assertEquals(-60.125, second.getLatitude(), 0);
+
+        List<EarthquakeData> page = archive.getPage(1, 10);
+        assertEquals(1, page.size());
+        assertEquals("ak0001", page.get(0).getId());
+    }
+
+    @Test
+    public void abort_leavesThePreviousArchive() throws IOException {
+        EarthquakeArchive.Writer writer = new EarthquakeArchive.Writer(file);
+        writer.add(new EarthquakeData("a", 5, "Somewhere", 1, 1, "", 0, 0, 0));
+        writer.finish();
+
+        writer = new EarthquakeArchive.Writer(file);
+        writer.add(new EarthquakeData("b", 6, "Elsewhere", 2, 2, "", 0, 0, 0));
+        writer.abort();
+        assertEquals(1, EarthquakeArchive.open(file).size());
+        assertEquals("a", EarthquakeArchive.open(file).getId(0));
+    }
+
+    @Test
+    public void summarize_archive() throws IOException {
+        EarthquakeArchive.Writer writer = new EarthquakeArchive.Writer(file);
+        for (int i = 0; i < 100; i++) {
+            writer.add(new EarthquakeData("id" + i, i % 2 == 0 ? 5 : 6, "10 km N of Suva, Fiji",
+                    i * EarthquakeAggregates.HOUR_MILLIS, 0, "", 0, 0, 0));
+        }
+        writer.finish();
+
+        EarthquakeAggregates aggregates = EarthquakeAggregates.summarize(EarthquakeArchive.open(file));
+        assertEquals(100, aggregates.getCount());
+        assertEquals(24, aggregates.getDailyCount(0));
+        assertEquals(50 * (EarthquakeAggregates.energyOf(5) + EarthquakeAggregates.energyOf(6)),
+                aggregates.getEnergy("Suva, Fiji"), 1e6);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_notAnArchive_throws() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[32]);
+        }
+        EarthquakeArchive.open(file);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.quakereport;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link EarthquakeFormatter} against the DecimalFormat and SimpleDateFormat
+ * patterns the list rows were formatted with before it.
+ */
+public class EarthquakeFormatterTest {
+
+    private static final Locale[] LOCALES = {
+            Locale.US, Locale.FRANCE, new Locale("ru", "RU"), new Locale("ar", "EG")
+    };
+
+    @Test
+    public void magnitude_roundsHalfEvenLikeDecimalFormat() {
+        EarthquakeFormatter formatter = new EarthquakeFormatter();
+        DecimalFormat baseline = new DecimalFormat("0.0");
+        assertEquals(baseline.format(4.35), formatter.formatMagnitude(4.35));
+        assertEquals(baseline.format(4.25), formatter.formatMagnitude(4.25));
+        for (int hundredths = 0; hundredths <= 1000; hundredths++) {
+            double magnitude = hundredths / 100.0;
+            assertEquals(baseline.format(magnitude), formatter.formatMagnitude(magnitude));
+            // Served from the table the second time
+            assertEquals(baseline.format(magnitude), formatter.formatMagnitude(magnitude));
+        }
+    }
+
+    @Test
+    public void magnitude_outsideTheTable() {
+        EarthquakeFormatter formatter = new EarthquakeFormatter();
+        DecimalFormat baseline = new DecimalFormat("0.0");
+        assertEquals(baseline.format(-0.5), formatter.formatMagnitude(-0.5));
+        assertEquals(baseline.format(12.3), formatter.formatMagnitude(12.3));
+        assertEquals(baseline.format(4.349), formatter.formatMagnitude(4.349));
+    }
+
+    @Test
+    public void dateAndTime_matchSimpleDateFormatInEveryLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            for (Locale locale : LOCALES) {
+                Locale.setDefault(locale);
+                EarthquakeFormatter formatter = new EarthquakeFormatter();
+                SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
+                SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
+                char[] buffer = new char[EarthquakeFormatter.BUFFER_SIZE];
+
+                Random random = new Random(6);
+                for (int i = 0; i < 2000; i++) {
+                    // Between the years 900 and 2100, to cover years of less than 4 digits
+                    long time = -33000000000000L + (long) (random.nextDouble() * 37200000000000L);
+                    Date date = new Date(time);
+                    assertEquals(locale.toString(), dateFormat.format(date), formatter.formatDate(time));
+                    assertEquals(locale.toString(), timeFormat.format(date), formatter.formatTime(time));
+                    assertEquals(dateFormat.format(date), new String(buffer, 0, formatter.formatDate(time, buffer)));
+                    assertEquals(timeFormat.format(date), new String(buffer, 0, formatter.formatTime(time, buffer)));
+                }
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeImporterTest {
+
+    private static final String HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,"
+            + "updated,place,type,horizontalError,depthError,magError,magNst,status,locationSource,magSource\n";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("earthquake_archive", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static List<String> readRow(String csv) throws IOException {
+        List<String> fields = new ArrayList<>();
+        assertTrue(EarthquakeImporter.readRow(new BufferedReader(new StringReader(csv)), fields));
+        return fields;
+    }
+
+    @Test
+    public void readRow_plainAndQuotedFields() throws IOException {
+        assertEquals(Arrays.asList("a", "", "c"), readRow("a,,c\nnext"));
+        assertEquals(Arrays.asList("12 km SSW of Foo, Bar", "x"), readRow("\"12 km SSW of Foo, Bar\",x"));
+        assertEquals(Arrays.asList("say \"hi\"", ""), readRow("\"say \"\"hi\"\"\","));
+    }
+
+    @Test
+    public void readRow_quotedLineBreak() throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader("\"first\nsecond\",x\ny\n"));
+        List<String> fields = new ArrayList<>();
+        assertTrue(EarthquakeImporter.readRow(reader, fields));
+        assertEquals(Arrays.asList("first\nsecond", "x"), fields);
+        assertTrue(EarthquakeImporter.readRow(reader, fields));
+        assertEquals(Arrays.asList("y"), fields);
+        assertFalse(EarthquakeImporter.readRow(reader, fields));
+    }
+
+    @Test(expected = IOException.class)
+    public void readRow_unclosedQuote_fieldCapped() throws IOException {
+        StringBuilder csv = new StringBuilder("\"never closed");
+        while (csv.length() <= EarthquakeImporter.MAX_FIELD_LENGTH * 2) {
+            csv.append("\nsome,more,rows");
+        }
+        readRow(csv.toString());
+    }
+
+    @Test
+    public void parseIsoTime() {
+        assertEquals(0L, EarthquakeImporter.parseIsoTime("1970-01-01T00:00:00Z"));
+        assertEquals(1391212417000L, EarthquakeImporter.parseIsoTime("2014-01-31T23:53:37.000Z"));
+        assertEquals(1391212417120L, EarthquakeImporter.parseIsoTime("2014-01-31T23:53:37.12Z"));
+        assertEquals(1391212417123L, EarthquakeImporter.parseIsoTime("2014-01-31T23:53:37.123456"));
+        // Leap day, and before 1970
+        assertEquals(951782400000L, EarthquakeImporter.parseIsoTime("2000-02-29T00:00:00.000Z"));
+        assertEquals(-1000L, EarthquakeImporter.parseIsoTime("1969-12-31T23:59:59.000Z"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseIsoTime_timeZoneOffset_rejected() {
+        EarthquakeImporter.parseIsoTime("2014-01-31T23:53:37.000+02:00");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseIsoTime_notATime_rejected() {
+        EarthquakeImporter.parseIsoTime("31/01/2014 23:53:37");
+    }
+
+    @Test
+    public void importCsv_intoArchive() throws IOException {
+        String csv = "\uFEFF" + HEADER
+                + "2014-01-31T23:53:37.000Z,60.252,-152.7081,90.6,1.7,ml,,,,0.29,ak,ak11155107,"
+                + "2014-02-05T19:34:41.515Z,\"26km S of Redoubt Volcano, Alaska\",earthquake,,,,,reviewed,ak,ak\n"
+                + "broken,row\n"
+                + "2014-01-31T23:48:35.452Z,37.0703,-115.1309,0,1.1,ml,,,,0.1,nn,nn00436847,"
+                + "2014-02-01T01:35:09.000Z,\"32km S of Alamo, Nevada\",earthquake,,,,,reviewed,nn,nn\n";
+        int count = EarthquakeImporter.importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+                file, null);
+        assertEquals(2, count);
+
+        EarthquakeArchive archive = EarthquakeArchive.open(file);
+        assertEquals(2, archive.size());
+        assertEquals("ak11155107", archive.getId(0));
+        assertEquals(1.7, archive.getMagnitude(0), 0);
+        assertEquals(1391212417000L, archive.getTime(0));
+        assertEquals(1391628881515L, archive.getUpdated(0));
+        assertEquals("26km S of", archive.getLocationOffset(0));
+        assertEquals("Redoubt Volcano, Alaska", archive.getPrimaryLocation(0));
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/ak11155107", archive.getUrl(0));
+        assertEquals(60.252, archive.getLatitude(0), 1e-4);
+        assertEquals(-152.7081, archive.getLongitude(0), 1e-4);
+        assertEquals(90.6, archive.getDepth(0), 1e-4);
+        assertEquals("nn00436847", archive.getId(1));
+        assertEquals("32km S of Alamo, Nevada", archive.getPlace(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void importCsv_missingColumn_fails() throws IOException {
+        EarthquakeImporter.importCsv(new ByteArrayInputStream("time,latitude\n".getBytes(StandardCharsets.UTF_8)),
+                file, null);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class EarthquakePlaceIndexTest {
+
+    private EarthquakePlaceIndex index;
+
+    @Before
+    public void setUp() {
+        index = new EarthquakePlaceIndex();
+        index.add("Kermadec Islands, New Zealand");   // 0
+        index.add("Wellington, New Zealand");         // 1
+        index.add("Port Moresby, Papua New Guinea");  // 2
+        index.add("Kermadec Islands, New Zealand");   // 3
+        index.add("Nuku'alofa, Tonga");               // 4
+        index.add("Concepci\u00f3n, Chile");          // 5
+    }
+
+    private static BitSet entries(int... entries) {
+        BitSet bits = new BitSet();
+        for (int entry : entries) {
+            bits.set(entry);
+        }
+        return bits;
+    }
+
+    @Test
+    public void search_prefixOfAWord() {
+        assertEquals(entries(0, 1, 3), index.search("zeal"));
+        assertEquals(entries(0, 1, 2, 3), index.search("new"));
+        assertEquals(entries(4), index.search("T"));
+    }
+
+    @Test
+    public void search_everyWordMustMatch() {
+        assertEquals(entries(0, 1, 3), index.search("new zea"));
+        assertEquals(entries(2), index.search("new gui"));
+        assertEquals(entries(0, 3), index.search("zealand  kerm"));
+        assertTrue(index.search("new tonga").isEmpty());
+    }
+
+    @Test
+    public void search_ignoresCaseAccentsAndPunctuation() {
+        assertEquals(entries(5), index.search("CONCEPCION"));
+        assertEquals(entries(5), index.search("concepci\u00f3n"));
+        assertEquals(entries(4), index.search("nuku'a"));
+    }
+
+    @Test
+    public void search_noWords_everything() {
+        assertEquals(entries(0, 1, 2, 3, 4, 5), index.search(""));
+        assertEquals(entries(0, 1, 2, 3, 4, 5), index.search(" , "));
+    }
+
+    @Test
+    public void store_indexesWhatWasAddedSinceTheLastSearch() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new EarthquakeData("a", 6, "10 km N of Suva, Fiji", 2, 2, "", 0, 0, 0));
+        assertEquals(entries(0), store.getPlaceIndex().search("fiji"));
+        store.add(new EarthquakeData("b", 6, "Fiji region", 1, 1, "", 0, 0, 0));
+        store.add(new EarthquakeData("c", 6, "5 km E of Lima, Peru", 0, 0, "", 0, 0, 0));
+        assertEquals(entries(0, 1), store.getPlaceIndex().search("fiji"));
+        assertEquals(3, store.getPlaceIndex().size());
+
+        EarthquakeStore copy = new EarthquakeStore(store);
+        assertEquals(entries(2), copy.getPlaceIndex().search("peru"));
+        store.clear();
+        assertEquals(0, store.getPlaceIndex().size());
+    }
+}
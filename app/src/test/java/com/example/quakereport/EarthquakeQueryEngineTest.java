@@ -0,0 +1,194 @@
+package com.example.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeQueryEngineTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1000 * DAY;
+
+    private EarthquakeStore store;
+    private EarthquakeQueryEngine engine;
+
+    @Before
+    public void setUp() {
+        store = new EarthquakeStore();
+        engine = new EarthquakeQueryEngine(store);
+    }
+
+    private static EarthquakeData earthquake(String id, double magnitude, long time) {
+        return new EarthquakeData(id, magnitude, "10 km N of Foo, Bar", time, time, "", 0, 0, 10);
+    }
+
+    private static EarthquakeFilter since(double minMagnitude, long startTime) {
+        return EarthquakeFilter.minMagnitude(minMagnitude).withTimeWindow(startTime, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void findGaps_nothingCovered_wholeFilter() {
+        EarthquakeFilter filter = since(6, NOW - 30 * DAY);
+        List<EarthquakeFilter> gaps = engine.findGaps(filter);
+        assertEquals(1, gaps.size());
+        assertEquals(6, gaps.get(0).minMagnitude, 0);
+        assertEquals(NOW - 30 * DAY, gaps.get(0).startTime);
+    }
+
+    @Test
+    public void findGaps_coveredWindow_none() {
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        assertTrue(engine.findGaps(since(6, NOW - 7 * DAY)).isEmpty());
+        assertTrue(engine.findGaps(since(7, NOW - 30 * DAY)).isEmpty());
+    }
+
+    @Test
+    public void findGaps_olderWindow_onlyTheOlderPart() {
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        List<EarthquakeFilter> gaps = engine.findGaps(since(6, NOW - 365 * DAY));
+        assertEquals(1, gaps.size());
+        assertEquals(NOW - 365 * DAY, gaps.get(0).startTime);
+        assertEquals(NOW - 30 * DAY, gaps.get(0).endTime);
+    }
+
+    @Test
+    public void findGaps_smallerMagnitude_wholeWindow() {
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        List<EarthquakeFilter> gaps = engine.findGaps(since(5, NOW - 7 * DAY));
+        assertEquals(1, gaps.size());
+        assertEquals(5, gaps.get(0).minMagnitude, 0);
+        assertEquals(6, gaps.get(0).maxMagnitude, 0);
+        assertEquals(NOW - 7 * DAY, gaps.get(0).startTime);
+    }
+
+    @Test
+    public void addCoverage_largerMagnitude_doesNotCoverSmallerOnes() {
+        // M6+ for a month, then a gap of M7+ for the year was fetched
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        engine.addCoverage(NOW - 365 * DAY, 7);
+
+        assertEquals(NOW - 30 * DAY, engine.getCoveredSince(6));
+        assertEquals(NOW - 365 * DAY, engine.getCoveredSince(7.5));
+        assertTrue(engine.findGaps(since(7, NOW - 365 * DAY)).isEmpty());
+
+        // Back to M6 for the year: only the M6 to M7 band of the older part is missing
+        List<EarthquakeFilter> gaps = engine.findGaps(since(6, NOW - 365 * DAY));
+        assertEquals(1, gaps.size());
+        assertEquals(6, gaps.get(0).minMagnitude, 0);
+        assertEquals(7, gaps.get(0).maxMagnitude, 0);
+        assertEquals(NOW - 365 * DAY, gaps.get(0).startTime);
+        assertEquals(NOW - 30 * DAY, gaps.get(0).endTime);
+    }
+
+    @Test
+    public void findGaps_oneGapPerBandReachingBackDifferently() {
+        engine.setCoverage(NOW - 7 * DAY, 5);
+        engine.addCoverage(NOW - 30 * DAY, 6);
+        engine.addCoverage(NOW - 365 * DAY, 7);
+
+        List<EarthquakeFilter> gaps = engine.findGaps(since(5, NOW - 365 * DAY));
+        assertEquals(2, gaps.size());
+        assertEquals(5, gaps.get(0).minMagnitude, 0);
+        assertEquals(6, gaps.get(0).maxMagnitude, 0);
+        assertEquals(NOW - 7 * DAY, gaps.get(0).endTime);
+        assertEquals(6, gaps.get(1).minMagnitude, 0);
+        assertEquals(7, gaps.get(1).maxMagnitude, 0);
+        assertEquals(NOW - 30 * DAY, gaps.get(1).endTime);
+    }
+
+    @Test
+    public void addCoverage_smallerMagnitudeFurtherBack_replacesTheSteps() {
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        engine.addCoverage(NOW - 365 * DAY, 7);
+        engine.addCoverage(NOW - 400 * DAY, 5);
+
+        assertArrayEquals(new double[] {5}, engine.getCoveredMagnitudes(), 0);
+        assertArrayEquals(new long[] {NOW - 400 * DAY}, engine.getCoveredSinces());
+        assertTrue(engine.findGaps(since(6, NOW - 365 * DAY)).isEmpty());
+    }
+
+    @Test
+    public void addCoverage_largerMagnitudeNotFurtherBack_isIgnored() {
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        engine.addCoverage(NOW - 7 * DAY, 7);
+        assertArrayEquals(new double[] {6}, engine.getCoveredMagnitudes(), 0);
+    }
+
+    @Test
+    public void reset_keepsCoverage_clearCoverageForgetsIt() {
+        engine.setCoverage(NOW - 30 * DAY, 6);
+        store.clear();
+        engine.reset();
+        assertEquals(NOW - 30 * DAY, engine.getCoveredSince(6));
+        engine.clearCoverage();
+        assertEquals(Long.MAX_VALUE, engine.getCoveredSince(6));
+    }
+
+    @Test
+    public void syncedUpdate_onlyMovedByBaseQueryResponses() {
+        List<EarthquakeData> page = Arrays.asList(earthquake("a", 6.1, NOW - DAY),
+                earthquake("b", 6.4, NOW - 2 * DAY));
+        store.addAll(page);
+        engine.addSyncedResponse(page);
+        assertEquals(NOW - DAY, engine.getSyncedUpdate());
+
+        // A newer earthquake merged in from the realtime feed doesn't move it
+        store.add(earthquake("realtime", 5.2, NOW));
+        engine.reset();
+        assertEquals(NOW - DAY, engine.getSyncedUpdate());
+
+        // A page of older earthquakes doesn't move it back, a newer delta moves it up
+        engine.addSyncedResponse(Collections.singletonList(earthquake("old", 6.5, NOW - 3 * DAY)));
+        assertEquals(NOW - DAY, engine.getSyncedUpdate());
+        engine.addSyncedResponse(Collections.singletonList(earthquake("c", 6.0, NOW - DAY / 2)));
+        assertEquals(NOW - DAY / 2, engine.getSyncedUpdate());
+
+        engine.clearCoverage();
+        assertEquals(0, engine.getSyncedUpdate());
+    }
+
+    @Test
+    public void query_filtersAndSortsLocally() {
+        store.add(earthquake("a", 6.1, NOW - DAY));
+        store.add(earthquake("b", 7.2, NOW - 2 * DAY));
+        store.add(earthquake("c", 5.5, NOW - 3 * DAY));
+        store.add(earthquake("d", 6.8, NOW - 40 * DAY));
+
+        List<EarthquakeData> newest = engine.queryEarthquakes(since(6, NOW - 30 * DAY));
+        assertEquals(2, newest.size());
+        assertEquals("a", newest.get(0).getId());
+        assertEquals("b", newest.get(1).getId());
+
+        List<EarthquakeData> largest = engine.queryEarthquakes(since(5, Long.MIN_VALUE)
+                .withOrder(EarthquakeFilter.Order.LARGEST_FIRST));
+        assertEquals("b", largest.get(0).getId());
+        assertEquals("d", largest.get(1).getId());
+        assertEquals("a", largest.get(2).getId());
+        assertEquals("c", largest.get(3).getId());
+    }
+
+    @Test
+    public void query_region_onlyEpicentersInTheBox() {
+        store.add(new EarthquakeData("tokyo", 6.1, "Tokyo", NOW - DAY, NOW - DAY, "", 35.7, 139.7, 10));
+        store.add(new EarthquakeData("fiji", 6.2, "Fiji", NOW - DAY, NOW - DAY, "", -17.7, 178.1, 10));
+        store.add(new EarthquakeData("tonga", 6.3, "Tonga", NOW - DAY, NOW - DAY, "", -21.2, -175.2, 10));
+        store.add(new EarthquakeData("chile", 6.4, "Chile", NOW - DAY, NOW - DAY, "", -33.4, -70.6, 10));
+
+        // Across the antimeridian
+        List<EarthquakeData> pacific = engine.queryEarthquakes(since(6, NOW - 30 * DAY)
+                .withOrder(EarthquakeFilter.Order.LARGEST_FIRST).withRegion(-50, 60, 60, -150));
+        assertEquals(3, pacific.size());
+        assertEquals("tonga", pacific.get(0).getId());
+        assertEquals("fiji", pacific.get(1).getId());
+        assertEquals("tokyo", pacific.get(2).getId());
+
+        EarthquakeFilter anywhere = since(6, NOW - 30 * DAY).withRegion(-90, 90, -180, 180);
+        assertFalse(anywhere.hasRegion());
+        assertEquals(4, engine.query(anywhere).length);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeSnapshotTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("earthquake_snapshot", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static EarthquakeSnapshot snapshot(List<EarthquakeData> earthquakes) {
+        EarthquakeFilter filter = new EarthquakeFilter(6.5, 8, 1000L, Long.MAX_VALUE,
+                EarthquakeFilter.Order.LARGEST_FIRST, "japan", -50, 60, 60, -150);
+        return new EarthquakeSnapshot(123456789L, filter, 7 * 24 * 3600 * 1000L, true, 41, false,
+                new double[] {6, 7}, new long[] {5000L, 2000L}, 1600000600000L, 17, earthquakes);
+    }
+
+    @Test
+    public void writeThenRead_sameSnapshot() throws IOException {
+        List<EarthquakeData> earthquakes = new ArrayList<>();
+        earthquakes.add(new EarthquakeData("us7000abcd", 7.1, "15 km SSW of Hachinohe, Japan",
+                1600000000000L, 1600000600000L, "https://earthquake.usgs.gov/earthquakes/eventpage/us7000abcd",
+                40.4, 141.4, 35.5));
+        earthquakes.add(new EarthquakeData("ak0001", 6.2, "Southern Alaska",
+                1599000000000L, 1599000000000L, "https://example.com/ak0001.html", 60.1, -152.3, 80));
+        snapshot(earthquakes).write(file);
+
+        EarthquakeSnapshot read = EarthquakeSnapshot.read(file);
+        assertEquals(123456789L, read.savedAt);
+        assertEquals(6.5, read.filter.minMagnitude, 0);
+        assertEquals(8, read.filter.maxMagnitude, 0);
+        assertEquals(1000L, read.filter.startTime);
+        assertEquals(Long.MAX_VALUE, read.filter.endTime);
+        assertEquals(EarthquakeFilter.Order.LARGEST_FIRST, read.filter.order);
+        assertEquals("japan", read.filter.placeQuery);
+        assertEquals(-50, read.filter.minLatitude, 0);
+        assertEquals(60, read.filter.maxLatitude, 0);
+        assertEquals(60, read.filter.minLongitude, 0);
+        assertEquals(-150, read.filter.maxLongitude, 0);
+        assertEquals(7 * 24 * 3600 * 1000L, read.windowMillis);
+        assertTrue(read.isRealtime);
+        assertEquals(41, read.nextOffset);
+        assertFalse(read.hasMorePages);
+        assertArrayEquals(new double[] {6, 7}, read.coveredMagnitudes, 0);
+        assertArrayEquals(new long[] {5000L, 2000L}, read.coveredSinces);
+        assertEquals(1600000600000L, read.syncedUpdate);
+        assertEquals(17, read.scrollPosition);
+
+        assertEquals(2, read.earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            EarthquakeData expected = earthquakes.get(i);
+            EarthquakeData actual = read.earthquakes.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+            assertEquals(expected.getPlace(), actual.getPlace());
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getUpdated(), actual.getUpdated());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+            assertEquals(expected.getDepth(), actual.getDepth(), 0);
+        }
+        assertEquals(5000L, read.getCoveredSince(6.5));
+        assertEquals(2000L, read.getCoveredSince(7.5));
+        assertEquals(Long.MAX_VALUE, read.getCoveredSince(5));
+    }
+
+    @Test
+    public void write_replacesThePreviousSnapshot() throws IOException {
+        List<EarthquakeData> earthquakes = new ArrayList<>();
+        earthquakes.add(new EarthquakeData("a", 6, "Somewhere", 1, 1, "", 0, 0, 0));
+        snapshot(earthquakes).write(file);
+        snapshot(new ArrayList<EarthquakeData>()).write(file);
+        assertTrue(EarthquakeSnapshot.read(file).earthquakes.isEmpty());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void read_noFile_null() throws IOException {
+        assertNull(EarthquakeSnapshot.read(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_notASnapshot_throws() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write("{\"type\":\"FeatureCollection\"}".getBytes("UTF-8"));
+        }
+        EarthquakeSnapshot.read(file);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EarthquakeSpatialIndexTest {
+
+    private EarthquakeSpatialIndex index;
+
+    private int tokyo;
+    private int fiji;
+    private int tonga;
+    private int santiago;
+    private int antimeridian;
+
+    @Before
+    public void setUp() {
+        index = new EarthquakeSpatialIndex();
+        tokyo = index.add(35.7, 139.7);
+        fiji = index.add(-17.7, 178.1);
+        tonga = index.add(-21.2, -175.2);
+        santiago = index.add(-33.4, -70.6);
+        antimeridian = index.add(0, 180);
+    }
+
+    private static int[] sorted(int... entries) {
+        int[] copy = entries.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void findInBox_plainBox() {
+        assertArrayEquals(sorted(tokyo), sorted(index.findInBox(30, 40, 130, 150)));
+        assertArrayEquals(sorted(fiji, tonga, santiago), sorted(index.findInBox(-40, -10, -180, 179)));
+    }
+
+    @Test
+    public void findInBox_acrossTheAntimeridian() {
+        assertArrayEquals(sorted(fiji, tonga, antimeridian), sorted(index.findInBox(-30, 10, 170, -170)));
+        // The same box with an eastern edge past 180
+        assertArrayEquals(sorted(fiji, tonga, antimeridian), sorted(index.findInBox(-30, 10, 170, 190)));
+    }
+
+    @Test
+    public void findInBox_wholeGlobe_everyColumn() {
+        assertEquals(5, index.findInBox(-90, 90, -180, 180).length);
+        assertEquals(5, index.findInBox(-90, 90, 0, 360).length);
+        // Wrapping back into the column it started from
+        assertEquals(5, index.findInBox(-90, 90, 10.5, 370.2).length);
+    }
+
+    @Test
+    public void findInBox_easternEdgeOf180_inclusive() {
+        assertArrayEquals(sorted(fiji, antimeridian), sorted(index.findInBox(-20, 10, 170, 180)));
+    }
+
+    @Test
+    public void findWithinRadius() {
+        // Fiji and Tonga are about 800 km apart, across the antimeridian
+        assertArrayEquals(sorted(fiji), sorted(index.findWithinRadius(-17.7, 178.1, 100)));
+        assertArrayEquals(sorted(fiji, tonga), sorted(index.findWithinRadius(-17.7, 178.1, 1000)));
+        assertEquals(5, index.findWithinRadius(0, 0, EarthquakeSpatialIndex.EARTH_RADIUS_KM * Math.PI).length);
+    }
+
+    @Test
+    public void findNearest_nearestFirst() {
+        assertArrayEquals(new int[] {tonga, fiji, antimeridian}, index.findNearest(-21, -175, 3));
+        assertEquals(5, index.findNearest(0, 0, 10).length);
+        assertEquals(0, index.findNearest(0, 0, 0).length);
+    }
+
+    @Test
+    public void distanceKm() {
+        assertEquals(0, EarthquakeSpatialIndex.distanceKm(10, 20, 10, 20), 1e-9);
+        // A degree of latitude
+        assertEquals(111.19, EarthquakeSpatialIndex.distanceKm(0, 0, 1, 0), 0.01);
+        assertEquals(111.19, EarthquakeSpatialIndex.distanceKm(0, 179.5, 0, -179.5), 0.01);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryUtilsTest {
+
+    private static EarthquakeData earthquake(String id, long time, long updated) {
+        return new EarthquakeData(id, 6.5, "10 km N of Foo, Bar", time, updated, "", 0, 0, 10);
+    }
+
+    private static List<String> ids(List<EarthquakeData> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (EarthquakeData earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void mergeQueryResults_keepsEachEventOnceNewestFirst() {
+        List<EarthquakeData> band6 = Arrays.asList(earthquake("a", 300, 1), earthquake("b", 100, 1));
+        List<EarthquakeData> band7 = Arrays.asList(earthquake("c", 200, 1), earthquake("a", 300, 1));
+
+        List<EarthquakeData> merged = QueryUtils.mergeQueryResults(Arrays.asList(band6, band7));
+        assertEquals(Arrays.asList("a", "c", "b"), ids(merged));
+    }
+
+    @Test
+    public void mergeQueryResults_keepsTheMostRecentlyUpdatedCopy() {
+        EarthquakeData revised = earthquake("a", 300, 5);
+        List<EarthquakeData> first = Collections.singletonList(revised);
+        List<EarthquakeData> second = Collections.singletonList(earthquake("a", 300, 2));
+
+        List<EarthquakeData> merged = QueryUtils.mergeQueryResults(Arrays.asList(first, second));
+        assertEquals(1, merged.size());
+        assertSame(revised, merged.get(0));
+    }
+
+    @Test
+    public void mergeQueryResults_nothingAnswered() {
+        assertTrue(QueryUtils.mergeQueryResults(new ArrayList<List<EarthquakeData>>()).isEmpty());
+    }
+
+    @Test
+    public void mergeEarthquakes_appliesChangesAndDeletions() {
+        List<EarthquakeData> current = Arrays.asList(earthquake("a", 300, 1), earthquake("b", 200, 1),
+                earthquake("c", 100, 1));
+        EarthquakeData revisedB = earthquake("b", 200, 9);
+        List<EarthquakeData> changes = Arrays.asList(earthquake("d", 400, 9), revisedB);
+
+        List<EarthquakeData> merged = QueryUtils.mergeEarthquakes(current, changes,
+                new HashSet<>(Collections.singletonList("c")));
+        assertEquals(Arrays.asList("d", "a", "b"), ids(merged));
+        assertSame(revisedB, merged.get(2));
+    }
+
+    @Test
+    public void newestUpdate() {
+        assertEquals(0, QueryUtils.newestUpdate(null));
+        assertEquals(9, QueryUtils.newestUpdate(Arrays.asList(earthquake("a", 1, 3), earthquake("b", 1, 9))));
+    }
+}
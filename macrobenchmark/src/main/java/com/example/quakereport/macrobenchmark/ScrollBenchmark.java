@@ -0,0 +1,63 @@
+package com.example.quakereport.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Measures frame timings (jank) while flinging through the earthquake list,
+ * which also covers binding rows and loading the next pages.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScrollBenchmark {
+
+    /** Time allowed for the first page to show up */
+    private static final long LOAD_TIMEOUT_MILLIS = 10000;
+
+    private static final int FLINGS = 5;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void scrollList() {
+        benchmarkRule.measureRepeated(
+                StartupBenchmark.PACKAGE_NAME,
+                Collections.singletonList(new FrameTimingMetric()),
+                CompilationMode.DEFAULT,
+                StartupMode.WARM,
+                5,
+                scope -> {
+                    scope.startActivityAndWait();
+                    scope.getDevice().wait(Until.hasObject(By.res(StartupBenchmark.PACKAGE_NAME, "magnitude")),
+                            LOAD_TIMEOUT_MILLIS);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    UiObject2 list = device.findObject(By.res(StartupBenchmark.PACKAGE_NAME, "total_list"));
+                    // Keep the gestures away from the system navigation areas
+                    list.setGestureMargin(device.getDisplayWidth() / 5);
+                    for (int i = 0; i < FLINGS; i++) {
+                        list.fling(Direction.DOWN);
+                        device.waitForIdle();
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+}